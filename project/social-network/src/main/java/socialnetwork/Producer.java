@@ -3,82 +3,110 @@ package socialnetwork;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import socialnetwork.generator.ActivityGenerator;
 import socialnetwork.util.Activity;
+import socialnetwork.util.ActivityBinaryFormat;
+import socialnetwork.util.ActivityEnvelope;
+import socialnetwork.util.ActivityStreamReader;
 import socialnetwork.util.Config;
+import socialnetwork.util.KeyPartitioner;
+import socialnetwork.util.ReplayCheckpoint;
+import socialnetwork.util.ReplayPacer;
+import socialnetwork.util.SendTimeHeader;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static socialnetwork.util.Config.*;
 
 public class Producer {
+    private static final Map.Entry<Long, Activity> END_OF_STREAM = new AbstractMap.SimpleImmutableEntry<>(Long.MAX_VALUE, null);
 
-    public static TreeMap<Long, List<Activity>> readCleanedStreams(boolean inOrder, int lateness) throws IOException {
-        TreeMap<Long, List<Activity>> map = new TreeMap<>();
+    /**
+     * Streams the cleaned stream files in the order they are sent, see ActivityStreamReader. Only the activities
+     * within the lateness window are held in memory, so sending can start right away.
+     */
+    public static ActivityStreamReader readCleanedStreams(boolean inOrder, int lateness) throws IOException {
+        return readCleanedStreams(inOrder, lateness, Long.MIN_VALUE, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Like readCleanedStreams, of the activities created at or after from and before to, see
+     * ActivityStreamReader.forRange.
+     */
+    public static ActivityStreamReader readCleanedStreams(boolean inOrder, int lateness, long from, long to) throws IOException {
+        return readCleanedStreams(inOrder, lateness, from, to, null);
+    }
+
+    /**
+     * Like readCleanedStreams with a range, resuming from the given checkpoint unless it is null.
+     */
+    public static ActivityStreamReader readCleanedStreams(boolean inOrder, int lateness, long from, long to,
+                                                          ReplayCheckpoint checkpoint) throws IOException {
         final String[] files = Config.getStreamCleanedInputFiles();
         final String[] prefixs = Config.getStreamPrefixs();
-        Random random = new Random();
-
-        for (int i = 0; i < files.length; i++) {
-            final BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(new FileInputStream(files[i])));
-            reader.readLine(); // avoid header
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Activity record = Activity.fromString(prefixs[i] + line);
-                long outputTimestamp = record.getCreationTimestamp();
-                if (!inOrder) {
-                    outputTimestamp += random.nextInt(lateness);
-                }
-                if (!map.containsKey(outputTimestamp)) {
-                    map.put(outputTimestamp, new ArrayList<>());
-                }
-                map.get(outputTimestamp).add(record);
-            }
+        final char[] types = new char[prefixs.length];
+        for (int i = 0; i < prefixs.length; i++) {
+            types[i] = prefixs[i].charAt(0);
         }
-        System.out.println("Finished reading all activities.\n");
-        return map;
+        if (checkpoint != null) {
+            return ActivityStreamReader.resume(files, types, inOrder, lateness, from, to, checkpoint);
+        }
+        return ActivityStreamReader.forRange(files, types, inOrder, lateness, from, to);
     }
 
-    private static void produceToKafka(KafkaProducer<String, String> producer, TreeMap<Long, List<Activity>> allActivitiesByTimestamp) {
+    /**
+     * @param checkpointer writes the progress of the replay, or null
+     */
+    private static void produceToKafka(KafkaProducer<String, byte[]> producer, ReplayPacer pacer, Iterator<Map.Entry<Long, List<Activity>>> activities,
+                                       Checkpointer checkpointer) {
         try {
-            System.out.println(String.format("Producing %s %sto Kafka topic %s...\n", Config.produceInOrder ? "in order" : "out of order", Config.useSpeedupFactor ? "proportionally " : "", Config.allActivitiesTopic));
-            long numberOfSentRecords = 0;
-
-            Map.Entry<Long, List<Activity>> entry = allActivitiesByTimestamp.pollFirstEntry();
-            while (entry != null) {
-                long this_time = entry.getKey();
-                List<Activity> list = entry.getValue();
-
-                // send activities assigned to this key (timestamp)
-                for(Activity t : list) {
-                    producer.send(new ProducerRecord<>(Config.allActivitiesTopic, null, t.toString())).get();
-                }
-                numberOfSentRecords += list.size();
-
-                // if map has next key
-                entry = allActivitiesByTimestamp.pollFirstEntry();
-                if(entry != null && Config.useSpeedupFactor) {
-                    long next_time = entry.getKey();
-                    final long sleepDuration = (next_time - this_time) / speedupFactor;
-                    if(sleepDuration <= 0) {
-                        continue;
+            System.out.println(String.format("Producing %s%s %sto Kafka topic %s in %s format%s%s%s%s...\n", Config.produceGenerated ? "generated activities " : "", Config.produceGenerated ? (Config.generatorLateness > 0 ? "out of order" : "in order") : Config.produceInOrder ? "in order" : "out of order", Config.replayRecordsPerSecond > 0 ? String.format("at %d records/s ", Config.replayRecordsPerSecond) : Config.useSpeedupFactor ? "proportionally " : "", Config.usePerTypeTopics ? Config.getActivityTopics() : Config.allActivitiesTopic, Config.useBinaryFormat ? "binary" : "text", Config.useEnvelopes ? " with envelopes" : "", Config.useAsyncSend ? String.format(", at most %d records in flight", producerMaxInFlight) : "", Config.useParallelProducer ? String.format(", one thread for each of the %d partitions", numKafkaPartitions) : "", Config.useKeyPartitioning ? ", partitioned by key" : ""));
+            long startTime = System.currentTimeMillis();
+            List<Replayer> replayers;
+            if (Config.useParallelProducer) {
+                replayers = produceInParallel(producer, pacer, activities);
+            } else if (Config.useKeyPartitioning) {
+                replayers = produceByKey(producer, pacer, activities, checkpointer);
+            } else {
+                Replayer replayer = new Replayer(producer, pacer, null);
+                replayers = Collections.singletonList(replayer);
+                while (activities.hasNext()) {
+                    Map.Entry<Long, List<Activity>> entry = activities.next();
+                    // send activities assigned to this key (timestamp)
+                    for (Activity t : entry.getValue()) {
+                        replayer.send(entry.getKey(), t);
+                        if (checkpointer != null) {
+                            checkpointer.sent(entry.getKey(), replayers);
+                        }
                     }
-                    Thread.sleep(sleepDuration);
                 }
+                // all activities must be acknowledged before the tombstones go out
+                replayer.flush();
+                for (int i = 0; i < numKafkaPartitions; i++) {
+                    replayer.sendTombstone(i);
+                }
+                replayer.flush();
             }
-            System.out.println(String.format("Sent %d records to kafka", numberOfSentRecords));
-
-            // Send tombstone messages
-            for(int i = 0; i < numKafkaPartitions; i++) {
-                Activity.Tombstone tombstone = new Activity.Tombstone(i, "9999-12-31T23:59:59Z");
-                producer.send(new ProducerRecord<>(Config.allActivitiesTopic, null, tombstone.toString())).get();
+            if (checkpointer != null) {
+                checkpointer.finish();
             }
+            printSummary(replayers, Math.max(1, System.currentTimeMillis() - startTime));
+            printRecordSize(producer);
             System.out.println("Finished producing to Kafka");
         } catch (InterruptedException e) {
             System.out.println("Interrupted exception");
@@ -86,18 +114,416 @@ public class Producer {
         } catch (ExecutionException e) {
             System.out.println("Execution exception");
             e.printStackTrace();
+        } catch (IOException e) {
+            System.out.println("Could not write the replay checkpoint");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends every activity to the partition of its key, see KeyPartitioner, with one replayer per source subtask
+     * so that envelopes only hold activities of one partition.
+     */
+    private static List<Replayer> produceByKey(KafkaProducer<String, byte[]> producer, ReplayPacer pacer,
+                                               Iterator<Map.Entry<Long, List<Activity>>> activities,
+                                               Checkpointer checkpointer) throws InterruptedException, ExecutionException, IOException {
+        KeyPartitioner partitioner = KeyPartitioner.forActivitiesTopic();
+        List<Replayer> replayers = new ArrayList<>();
+        for (int i = 0; i < numKafkaPartitions; i++) {
+            replayers.add(new Replayer(producer, pacer, i));
+        }
+        while (activities.hasNext()) {
+            Map.Entry<Long, List<Activity>> entry = activities.next();
+            for (Activity t : entry.getValue()) {
+                replayers.get(partitioner.subtaskOf(t.getKey())).send(entry.getKey(), t);
+                if (checkpointer != null) {
+                    checkpointer.sent(entry.getKey(), replayers);
+                }
+            }
+        }
+        for (int i = 0; i < numKafkaPartitions; i++) {
+            replayers.get(i).flush();
+            replayers.get(i).sendTombstone(i);
+        }
+        producer.flush();
+        return replayers;
+    }
+
+    /**
+     * Deals the activities to one thread per partition, round-robin or by the partition of their key, so every
+     * partition gets a time-ordered sub-stream. The threads pace against the shared pacer and send their
+     * tombstone when their queue is done.
+     */
+    private static List<Replayer> produceInParallel(KafkaProducer<String, byte[]> producer, ReplayPacer pacer,
+                                                    Iterator<Map.Entry<Long, List<Activity>>> activities) throws InterruptedException {
+        List<Replayer> replayers = new ArrayList<>();
+        List<BlockingQueue<Map.Entry<Long, Activity>>> queues = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numKafkaPartitions; i++) {
+            final int slot = i;
+            final Replayer replayer = new Replayer(producer, pacer, slot);
+            final BlockingQueue<Map.Entry<Long, Activity>> queue = new ArrayBlockingQueue<>(producerQueueCapacity);
+            Thread thread = new Thread(() -> {
+                try {
+                    Map.Entry<Long, Activity> next;
+                    while ((next = queue.take()) != END_OF_STREAM) {
+                        replayer.send(next.getKey(), next.getValue());
+                    }
+                    replayer.flush();
+                    replayer.sendTombstone(slot);
+                    replayer.flush();
+                } catch (InterruptedException e) {
+                    // the reader failed
+                    System.out.println(String.format("Sender %d interrupted", slot));
+                } catch (ExecutionException | RuntimeException e) {
+                    System.out.println(String.format("Sender %d failed", slot));
+                    e.printStackTrace();
+                    // keep draining, so that the reader is not blocked
+                    try {
+                        while (queue.take() != END_OF_STREAM) { }
+                    } catch (InterruptedException ignored) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "producer-" + slot);
+            thread.start();
+            replayers.add(replayer);
+            queues.add(queue);
+            threads.add(thread);
+        }
+
+        KeyPartitioner partitioner = Config.useKeyPartitioning ? KeyPartitioner.forActivitiesTopic() : null;
+        int next = 0;
+        boolean complete = false;
+        try {
+            while (activities.hasNext()) {
+                Map.Entry<Long, List<Activity>> entry = activities.next();
+                for (Activity t : entry.getValue()) {
+                    int slot = partitioner != null ? partitioner.subtaskOf(t.getKey()) : next;
+                    queues.get(slot).put(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), t));
+                    next = (next + 1) % numKafkaPartitions;
+                }
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                // stop the senders, so that the error is thrown instead of the JVM waiting for them
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+            }
+        }
+        for (BlockingQueue<Map.Entry<Long, Activity>> queue : queues) {
+            queue.put(END_OF_STREAM);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return replayers;
+    }
+
+    private static void printSummary(List<Replayer> replayers, long duration) {
+        long activities = 0, records = 0, bytes = 0, failed = 0;
+        Exception firstError = null;
+        for (Replayer replayer : replayers) {
+            activities += replayer.activities;
+            records += replayer.sender.getRecords();
+            bytes += replayer.sender.getBytes();
+            failed += replayer.sender.getFailed();
+            if (firstError == null) {
+                firstError = replayer.sender.getFirstError();
+            }
+        }
+        System.out.println(String.format("Sent %d activities in %d records to kafka in %.1f s, %d failed",
+                activities, records, duration / 1000.0, failed));
+        System.out.println(String.format("Payload: %.1f bytes/activity, %.1f bytes/record",
+                (double) bytes / Math.max(1, activities), (double) bytes / Math.max(1, records)));
+        System.out.println(String.format("Throughput: %.0f activities/s, %.0f records/s, %.2f MB/s",
+                activities * 1000.0 / duration, records * 1000.0 / duration, bytes * 1000.0 / duration / (1 << 20)));
+        if (firstError != null) {
+            System.out.println("First send error:");
+            firstError.printStackTrace();
+        }
+    }
+
+    /**
+     * Paces, serializes and sends the activities of one sub-stream, packing them into envelopes if enabled.
+     * Each thread needs its own, because serializers and envelopes are not thread-safe.
+     */
+    private static class Replayer {
+        // shortest pacing wait before which the pending envelopes are sent
+        private static final long ENVELOPE_FLUSH_WAIT = TimeUnit.MILLISECONDS.toNanos(Math.max(1, producerLingerMs));
+        final Sender sender;
+        private final ReplayPacer pacer;
+        private final Integer slot;
+        // activities are serialized here instead of by the producer, so that they can be packed into envelopes
+        private final Serializer<Activity> serializer = useBinaryFormat ?
+                new ActivityBinaryFormat.KafkaSerializer() : new Activity.KafkaSerializer();
+        // the pending envelope and the key partitioner of each topic
+        private final Map<String, ActivityEnvelope.Builder> envelopes = new HashMap<>();
+        private final Map<String, KeyPartitioner> partitioners = new HashMap<>();
+        long activities;
+
+        /**
+         * @param slot the partition to send to, or with key partitioning the source subtask whose partition to
+         *             send to, or null to leave the partition to the partitioner
+         */
+        Replayer(KafkaProducer<String, byte[]> producer, ReplayPacer pacer, Integer slot) {
+            this.sender = new Sender(producer, useAsyncSend);
+            this.pacer = pacer;
+            this.slot = slot;
+        }
+
+        void send(long timestamp, Activity activity) throws InterruptedException, ExecutionException {
+            long due = pacer.schedule(timestamp);
+            // do not hold back activities that are due while waiting, unless the wait is shorter than the producer
+            // would hold them back anyway, so that paced replays still fill their envelopes
+            if (due - System.nanoTime() > ENVELOPE_FLUSH_WAIT) {
+                sendEnvelopes();
+            }
+            pacer.awaitUntil(timestamp, due);
+
+            String topic = Config.getActivityTopic(activity.getType());
+            byte[] record = serializer.serialize(topic, activity);
+            if (Config.useEnvelopes) {
+                ActivityEnvelope.Builder envelope = envelopes.computeIfAbsent(topic, t -> new ActivityEnvelope.Builder());
+                if (envelope.size() >= envelopeSize || envelope.timeSpan(timestamp) > envelopeTimeSlice) {
+                    sender.send(topic, partitionOf(topic, slot), envelope.build());
+                }
+                envelope.add(record, timestamp);
+            } else {
+                sender.send(topic, partitionOf(topic, slot), record);
+            }
+            activities++;
+        }
+
+        private void sendEnvelopes() throws InterruptedException, ExecutionException {
+            for (Map.Entry<String, ActivityEnvelope.Builder> envelope : envelopes.entrySet()) {
+                if (!envelope.getValue().isEmpty()) {
+                    sender.send(envelope.getKey(), partitionOf(envelope.getKey(), slot), envelope.getValue().build());
+                }
+            }
+        }
+
+        private Integer partitionOf(String topic, Integer slot) {
+            if (slot == null || !Config.useKeyPartitioning) {
+                return slot;
+            }
+            return partitioners.computeIfAbsent(topic, KeyPartitioner::forTopic).partitionOfSubtask(slot);
+        }
+
+        /**
+         * Sends the pending envelopes and blocks until everything sent so far is acknowledged or failed.
+         */
+        void flush() throws InterruptedException, ExecutionException {
+            sendEnvelopes();
+            sender.flush();
+        }
+
+        /**
+         * Sends a tombstone to the given slot (see the constructor) of every activity topic, in its own envelope
+         * so that no activity is in an envelope that ends the stream.
+         */
+        void sendTombstone(int slot) throws InterruptedException, ExecutionException {
+            for (String topic : Config.getActivityTopics()) {
+                Activity.Tombstone tombstone = new Activity.Tombstone(slot, "9999-12-31T23:59:59Z");
+                byte[] record = serializer.serialize(topic, tombstone);
+                if (Config.useEnvelopes) {
+                    ActivityEnvelope.Builder envelope = new ActivityEnvelope.Builder();
+                    envelope.add(record, tombstone.getCreationTimestamp());
+                    record = envelope.build();
+                }
+                sender.send(topic, partitionOf(topic, slot), record);
+            }
+        }
+    }
+
+    /**
+     * Writes a ReplayCheckpoint of the replay every Config.producerCheckpointInterval, once everything sent so far
+     * is acknowledged or failed, and deletes it when the replay is complete. The producer retries failed sends
+     * (see main), a send that still fails counts as sent and is not sent again on resume. The activities sent
+     * after the last checkpoint, up to Config.producerCheckpointInterval of them, are sent again on resume, so
+     * Kafka can get them twice.
+     */
+    private static class Checkpointer {
+        private final ActivityStreamReader reader;
+        private final String path;
+        private final String[] files;
+        private final int lateness;
+        private long timestamp = Long.MIN_VALUE;
+        private long sentAtTimestamp;
+        private long nextCheckpoint;
+
+        /**
+         * @param resumedFrom the checkpoint the reader resumes from, or null
+         */
+        Checkpointer(ActivityStreamReader reader, String path, String[] files, int lateness, ReplayCheckpoint resumedFrom) {
+            this.reader = reader;
+            this.path = path;
+            this.files = files;
+            this.lateness = lateness;
+            if (resumedFrom != null) {
+                timestamp = resumedFrom.timestamp;
+                sentAtTimestamp = resumedFrom.sentAtTimestamp;
+            }
+            nextCheckpoint = System.currentTimeMillis() + producerCheckpointInterval;
+        }
+
+        /**
+         * Counts an activity with the given output timestamp as sent by one of the replayers.
+         */
+        void sent(long timestamp, List<Replayer> replayers) throws InterruptedException, ExecutionException, IOException {
+            if (timestamp != this.timestamp) {
+                this.timestamp = timestamp;
+                sentAtTimestamp = 0;
+            }
+            sentAtTimestamp++;
+            if (System.currentTimeMillis() >= nextCheckpoint) {
+                for (Replayer replayer : replayers) {
+                    replayer.flush();
+                }
+                reader.checkpoint(timestamp, sentAtTimestamp).save(path, files, lateness, getReplayFrom(), getReplayTo());
+                nextCheckpoint = System.currentTimeMillis() + producerCheckpointInterval;
+            }
+        }
+
+        void finish() throws IOException {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    private static ReplayPacer createPacer() {
+        if (replayRecordsPerSecond > 0) {
+            return ReplayPacer.fixedRate(replayRecordsPerSecond, replayBurst);
+        }
+        return useSpeedupFactor ? ReplayPacer.speedup(speedupFactor) : ReplayPacer.unpaced();
+    }
+
+    /**
+     * Sends records to Kafka, either waiting for every acknowledgement, or asynchronously with at most
+     * Config.producerMaxInFlight records not acknowledged yet. Failed asynchronous sends are counted in the
+     * callback and do not stop the replay.
+     */
+    private static class Sender {
+        final KafkaProducer<String, byte[]> producer;
+        private final Semaphore inFlight;
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicReference<Exception> firstError = new AtomicReference<>();
+        private long records;
+        private long bytes;
+
+        Sender(KafkaProducer<String, byte[]> producer, boolean async) {
+            this.producer = producer;
+            this.inFlight = async ? new Semaphore(producerMaxInFlight) : null;
+        }
+
+        /**
+         * @param partition partition to send to, or null to leave it to the partitioner
+         */
+        void send(String topic, Integer partition, byte[] value) throws InterruptedException, ExecutionException {
+            ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, partition, null, value);
+            if (trackLatency) {
+                SendTimeHeader.stamp(record.headers(), System.currentTimeMillis());
+            }
+            records++;
+            bytes += value.length;
+            if (inFlight == null) {
+                producer.send(record).get();
+                return;
+            }
+            inFlight.acquire();
+            try {
+                producer.send(record, (metadata, exception) -> {
+                    inFlight.release();
+                    if (exception != null) {
+                        failed.incrementAndGet();
+                        firstError.compareAndSet(null, exception);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // thrown before the record was handed over, so the callback never runs
+                inFlight.release();
+                failed.incrementAndGet();
+                firstError.compareAndSet(null, e);
+                throw e;
+            }
+        }
+
+        /**
+         * Blocks until all records sent so far are acknowledged or failed.
+         */
+        void flush() {
+            producer.flush();
+        }
+
+        long getRecords() {
+            return records;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        long getFailed() {
+            return failed.get();
+        }
+
+        Exception getFirstError() {
+            return firstError.get();
+        }
+    }
+
+    private static void printRecordSize(KafkaProducer<String, byte[]> producer) {
+        for (Map.Entry<MetricName, ? extends Metric> metric : producer.metrics().entrySet()) {
+            if (metric.getKey().group().equals("producer-metrics") && metric.getKey().name().equals("record-size-avg")) {
+                System.out.println(String.format("Average record size: %.1f bytes", metric.getValue().value()));
+            }
         }
     }
 
     public static void main(String[] args) throws Exception {
         Properties props = new Properties();
         props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, LOCAL_KAFKA_BROKER);
-        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
         props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        KafkaProducer<String, String> producer = new KafkaProducer<>(props);
-
-        final TreeMap<Long, List<Activity>> allActivitiesByTimestamp = readCleanedStreams(produceInOrder, (int) outOfOrdernessBound.toMilliseconds());
-        produceToKafka(producer, allActivitiesByTimestamp);
+        props.setProperty(ProducerConfig.LINGER_MS_CONFIG, String.valueOf(producerLingerMs));
+        props.setProperty(ProducerConfig.BATCH_SIZE_CONFIG, String.valueOf(producerBatchSize));
+        props.setProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, producerCompressionType);
+        // retry transient broker errors such as leader changes, idempotence keeps the pipelined sends of a
+        // partition in order and without duplicates across retries (needs brokers 0.11 or newer)
+        props.setProperty(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        props.setProperty(ProducerConfig.ACKS_CONFIG, "all");
+        props.setProperty(ProducerConfig.RETRIES_CONFIG, String.valueOf(Integer.MAX_VALUE));
+        props.setProperty(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "5");
+        KafkaProducer<String, byte[]> producer = new KafkaProducer<>(props);
+        try {
+            if (produceGenerated) {
+                ActivityGenerator generator = ActivityGenerator.fromConfig(0, 1);
+                produceToKafka(producer, createPacer(), generator, null);
+                System.out.println(String.format("Generated %d activities", generator.getGenerated()));
+            } else if (checkpointProducer && !useParallelProducer) {
+                String[] files = Config.getStreamCleanedInputFiles();
+                int lateness = produceInOrder ? 0 : (int) outOfOrdernessBound.toMilliseconds();
+                ReplayCheckpoint checkpoint = ReplayCheckpoint.load(producerCheckpointFile, files, lateness, getReplayFrom(), getReplayTo());
+                if (checkpoint != null) {
+                    System.out.println(String.format("Resuming the replay from %s: %s", producerCheckpointFile, checkpoint));
+                }
+                try (ActivityStreamReader activities = readCleanedStreams(produceInOrder, (int) outOfOrdernessBound.toMilliseconds(), getReplayFrom(), getReplayTo(), checkpoint)) {
+                    produceToKafka(producer, createPacer(), activities,
+                            new Checkpointer(activities, producerCheckpointFile, files, lateness, checkpoint));
+                }
+            } else {
+                if (checkpointProducer) {
+                    System.out.println("Replay checkpoints need a single reader thread for all sends, replaying "
+                            + "without checkpoints with the parallel producer");
+                }
+                try (ActivityStreamReader activities = readCleanedStreams(produceInOrder, (int) outOfOrdernessBound.toMilliseconds(), getReplayFrom(), getReplayTo())) {
+                    produceToKafka(producer, createPacer(), activities, null);
+                }
+            }
+        } finally {
+            producer.close();
+        }
     }
 }
 
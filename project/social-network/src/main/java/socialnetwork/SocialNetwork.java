@@ -1,23 +1,46 @@
 package socialnetwork;
 
+import org.apache.flink.api.common.JobExecutionResult;
+import org.apache.flink.api.common.functions.FlatMapFunction;
+import org.apache.flink.api.common.serialization.DeserializationSchema;
 import org.apache.flink.configuration.ConfigConstants;
 import org.apache.flink.configuration.Configuration;
+import org.apache.flink.runtime.state.StateBackend;
+import org.apache.flink.runtime.state.filesystem.FsStateBackend;
+import org.apache.flink.streaming.api.CheckpointingMode;
 import org.apache.flink.streaming.api.TimeCharacteristic;
 import org.apache.flink.streaming.api.datastream.DataStream;
 import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
+import org.apache.flink.streaming.api.environment.CheckpointConfig;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.AssignerWithPeriodicWatermarks;
 import org.apache.flink.streaming.api.functions.timestamps.BoundedOutOfOrdernessTimestampExtractor;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer011;
+import org.apache.flink.util.Collector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import socialnetwork.generator.GeneratorSource;
+import socialnetwork.task.TaskBase;
 import socialnetwork.task.activepost.ActivePostStatistician;
 import socialnetwork.task.anomalydetection.AnomalousUserDetector;
 import socialnetwork.task.postidresolution.PostIdResolver;
 import socialnetwork.task.recommendation.FriendRecommender;
 import socialnetwork.util.Activity;
+import socialnetwork.util.ActivityBinaryFormat;
+import socialnetwork.util.AdaptiveWatermarkAssigner;
+import socialnetwork.util.ActivityEnvelope;
 import socialnetwork.util.Config;
+import socialnetwork.util.FileReplaySource;
+import socialnetwork.util.IdleAwareKafkaConsumer;
+import socialnetwork.util.KeyPartitioner;
+import socialnetwork.util.LatencyRecorder;
+import socialnetwork.util.SendTimeHeader;
 
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 public class SocialNetwork {
     final static Logger logger = LoggerFactory.getLogger("SocialNetwork");
@@ -28,29 +51,34 @@ public class SocialNetwork {
         logger.info("Setting up the stream execution environment");
         final StreamExecutionEnvironment env = setupEnvironment();
 
-        logger.info("Building Dataflow: Ingest activities from Kafka");
-        DataStream<Activity> allActivitiesStream = getAllActivitiesStream(env);
+        PostIdResolver postIdResolver = new PostIdResolver();
+//        ActivePostStatistician task1 = new ActivePostStatistician();
+//        FriendRecommender task2 = new FriendRecommender();
+        AnomalousUserDetector task3 = new AnomalousUserDetector();
+
+        logger.info("Building Dataflow: Ingest activities from {}",
+                Config.useGeneratorSource ? "the generator" : Config.useFileSource ? "the stream files" : "Kafka");
+        DataStream<Activity> allActivitiesStream = getAllActivitiesStream(env,
+                getRequiredFields(postIdResolver, task3), getRequiredTypes(postIdResolver, task3));
 
         logger.info("Building Dataflow: Resolve postId");
-        PostIdResolver postIdResolver = new PostIdResolver();
         postIdResolver.buildPipeline(env, allActivitiesStream);
         SingleOutputStreamOperator<Activity> postIdResolvedAllActivitiesStream = postIdResolver.getResolvedStream();
 
 //        logger.info("Building Dataflow: Task 1 Active Post Statistics");
-//        ActivePostStatistician task1 = new ActivePostStatistician();
 //        task1.buildPipeline(env, postIdResolvedAllActivitiesStream);
 //
 //        logger.info("Building Dataflow: Task 2 Friend Recommendation");
-//        FriendRecommender task2 = new FriendRecommender();
 //        task2.buildPipeline(env, postIdResolvedAllActivitiesStream);
 
         logger.info("Building Dataflow: Task 3 Unusual Activity Detection");
-        AnomalousUserDetector task3 = new AnomalousUserDetector();
         task3.buildPipeline(env, postIdResolvedAllActivitiesStream);
 
-        env.execute("Social Network");
+        JobExecutionResult result = env.execute("Social Network");
+        LatencyRecorder.printSummary(result);
     }
 
+    @SuppressWarnings("deprecation")  // forcing checkpoints has no replacement yet
     public static StreamExecutionEnvironment setupEnvironment() {
         StreamExecutionEnvironment env;
         if (Config.useLocalEnvironmentWithWebUI) {
@@ -61,29 +89,196 @@ public class SocialNetwork {
             env = StreamExecutionEnvironment.getExecutionEnvironment();
         }
         env.setParallelism(Config.flinkParallelism);
+        env.setMaxParallelism(Config.flinkMaxParallelism);
         env.setStreamTimeCharacteristic(TimeCharacteristic.EventTime);
+        if (Config.startFromCommittedOffsets) {
+            // the Kafka sources commit their offsets on every checkpoint, and a restarted job goes on from there,
+            // from the latest checkpoint after a failure, or from the committed offsets when started anew
+            // Forced, as the feedback edge of the PostIdResolver makes the job iterative. The replies on the
+            // feedback edge are not in the checkpoints, they are lost on a restore.
+            env.enableCheckpointing(Config.checkpointInterval, CheckpointingMode.EXACTLY_ONCE, true);
+            env.setStateBackend((StateBackend) new FsStateBackend(Config.checkpointDirectory));
+            env.getCheckpointConfig().enableExternalizedCheckpoints(
+                    CheckpointConfig.ExternalizedCheckpointCleanup.RETAIN_ON_CANCELLATION);
+        }
         return env;
     }
 
+    /**
+     * The wide activity fields needed by at least one of the given tasks, every task built on the ingested
+     * stream has to be passed here.
+     */
+    public static Set<Activity.Field> getRequiredFields(TaskBase<?>... tasks) {
+        Set<Activity.Field> fields = EnumSet.noneOf(Activity.Field.class);
+        for (TaskBase<?> task : tasks) {
+            fields.addAll(task.getRequiredFields());
+        }
+        return fields;
+    }
+
+    /**
+     * The activity types needed by at least one of the given tasks, every task built on the ingested stream has
+     * to be passed here.
+     */
+    public static Set<Activity.ActivityType> getRequiredTypes(TaskBase<?>... tasks) {
+        Set<Activity.ActivityType> types = EnumSet.noneOf(Activity.ActivityType.class);
+        for (TaskBase<?> task : tasks) {
+            types.addAll(task.getRequiredTypes());
+        }
+        return types;
+    }
+
     public static DataStream<Activity> getAllActivitiesStream(StreamExecutionEnvironment env) {
+        return getAllActivitiesStream(env, EnumSet.allOf(Activity.Field.class),
+                EnumSet.complementOf(EnumSet.of(Activity.ActivityType.Tombstone)));
+    }
+
+    /**
+     * @param requiredFields wide activity fields to keep, all others are dropped in the source
+     * @param requiredTypes  activity types to read, with per-type topics only their topics are subscribed to
+     */
+    public static DataStream<Activity> getAllActivitiesStream(StreamExecutionEnvironment env,
+                                                              Set<Activity.Field> requiredFields,
+                                                              Set<Activity.ActivityType> requiredTypes) {
+        logger.info("Keeping activity fields {}", requiredFields);
         Properties kafkaProps = new Properties();
         kafkaProps.setProperty("zookeeper.connect", Config.LOCAL_ZOOKEEPER_HOST);
         kafkaProps.setProperty("bootstrap.servers", Config.LOCAL_KAFKA_BROKER);
         kafkaProps.setProperty("group.id", Config.KAFKA_GROUP);
-        // always read the Kafka topic from the start
+        // read the Kafka topic from the start, unless resuming from committed offsets, see setStartPosition
         kafkaProps.setProperty("auto.offset.reset", "earliest");
-        FlinkKafkaConsumer011<Activity> consumer =
-                new FlinkKafkaConsumer011<>(Config.allActivitiesTopic, new Activity.Deserializer(), kafkaProps);
-        consumer.setStartFromEarliest();
-        consumer.assignTimestampsAndWatermarks(new BoundedOutOfOrdernessTimestampExtractor<Activity>(Config.outOfOrdernessBound) {
+        Activity.Deserializer deserializer = Config.useBinaryFormat ?
+                new ActivityBinaryFormat.Deserializer(requiredFields) : new Activity.Deserializer(requiredFields);
+        if (Config.useGeneratorSource) {
+            if (Config.useKeyPartitioning) {
+                throw new IllegalStateException("Key partitioning needs the Kafka source");
+            }
+            logger.info("Generating activities, see ActivityGenerator");
+            return env
+                .addSource(new GeneratorSource(requiredTypes, requiredFields, Config.generatorSourceRecordsPerSecond))
+                .name("Generator")
+                .assignTimestampsAndWatermarks(createWatermarkAssigner());
+        }
+        if (Config.useFileSource) {
+            if (Config.useKeyPartitioning) {
+                throw new IllegalStateException("Key partitioning needs the Kafka source");
+            }
+            logger.info("Reading activities from the cleaned stream files");
+            return env
+                .addSource(FileReplaySource.forCleanedStreams(requiredTypes, requiredFields))
+                .name("File replay")
+                .assignTimestampsAndWatermarks(createWatermarkAssigner());
+        }
+
+        // a key-partitioned topic needs one source subtask per partition, see KeyPartitioner
+        int sourceParallelism = Config.useKeyPartitioning ?
+                Config.numKafkaPartitions : Integer.min(Config.numKafkaPartitions, Config.flinkParallelism);
+
+        // with per-type topics there is one source per type, the union forwards the minimum of their watermarks
+        // so that the event time of all types stays aligned
+        Set<String> topics = new LinkedHashSet<>();
+        for (Activity.ActivityType type : requiredTypes) {
+            topics.add(Config.getActivityTopic(type));
+        }
+        logger.info("Reading activities from topics {}", topics);
+        DataStream<Activity> stream = null;
+        for (String topic : topics) {
+            DataStream<Activity> source = getActivitiesSource(env, topic, deserializer, kafkaProps, sourceParallelism);
+            stream = stream == null ? source : stream.union(source);
+        }
+
+        if (Config.useKeyPartitioning && Config.validateKeyPartitioning) {
+            stream = stream
+                .map(new KeyPartitioner.Validator(KeyPartitioner.forActivitiesTopic()))
+                .setParallelism(sourceParallelism)
+                .name("Validate key partitioning");
+        }
+        return stream;
+    }
+
+    private static SingleOutputStreamOperator<Activity> getActivitiesSource(StreamExecutionEnvironment env, String topic,
+                                                                            Activity.Deserializer deserializer,
+                                                                            Properties kafkaProps,
+                                                                            int sourceParallelism) {
+        if (Config.useEnvelopes) {
+            // the envelopes are unpacked in a chained flatMap, timestamps and watermarks are assigned to the
+            // unpacked activities, per source subtask instead of per partition
+            FlinkKafkaConsumer011<List<Activity>> consumer = createConsumer(topic,
+                    new ActivityEnvelope.Deserializer(deserializer), kafkaProps);
+            return env
+                .addSource(consumer)
+                .setParallelism(sourceParallelism)
+                .name("Kafka " + topic)
+                .flatMap(new FlatMapFunction<List<Activity>, Activity>() {
+                    @Override
+                    public void flatMap(List<Activity> activities, Collector<Activity> out) {
+                        for (Activity activity : activities) {
+                            out.collect(activity);
+                        }
+                    }
+                })
+                .setParallelism(sourceParallelism)
+                .name("Unpack envelopes")
+                .assignTimestampsAndWatermarks(createWatermarkAssigner())
+                .setParallelism(sourceParallelism);
+        }
+
+        FlinkKafkaConsumer011<Activity> consumer = createConsumer(topic, deserializer, kafkaProps);
+        if (!Config.useAdaptiveWatermarks) {
+            // watermarks per partition, inside the consumer
+            consumer.assignTimestampsAndWatermarks(createWatermarkAssigner());
+            return env
+                .addSource(consumer)
+                .setParallelism(sourceParallelism)
+                .name("Kafka " + topic);
+        }
+        // the adaptive assigner needs a runtime context for its metrics, so it runs chained to the source, which
+        // is still per partition as long as every source subtask reads at most one partition
+        if (Config.numKafkaPartitions > sourceParallelism) {
+            logger.warn("{} partitions of {} are read by {} source subtasks, their watermarks are tracked together",
+                    Config.numKafkaPartitions, topic, sourceParallelism);
+        }
+        return env
+            .addSource(consumer)
+            .setParallelism(sourceParallelism)
+            .name("Kafka " + topic)
+            .assignTimestampsAndWatermarks(createWatermarkAssigner())
+            .setParallelism(sourceParallelism);
+    }
+
+    // with latency tracking, the consumer also reads the send time the Producer stamped into the record headers
+    private static <T> FlinkKafkaConsumer011<T> createConsumer(String topic, DeserializationSchema<T> deserializer,
+                                                               Properties kafkaProps) {
+        FlinkKafkaConsumer011<T> consumer = Config.trackLatency ?
+                new IdleAwareKafkaConsumer<>(topic, new SendTimeHeader.Deserializer<>(deserializer), kafkaProps,
+                        Config.numKafkaPartitions, Config.partitionIdleTimeout) :
+                new IdleAwareKafkaConsumer<>(topic, deserializer, kafkaProps, Config.numKafkaPartitions,
+                        Config.partitionIdleTimeout);
+        setStartPosition(consumer);
+        return consumer;
+    }
+
+    // partitions without an offset committed by the group still start from the earliest, see auto.offset.reset
+    private static void setStartPosition(FlinkKafkaConsumer011<?> consumer) {
+        if (Config.startFromCommittedOffsets) {
+            consumer.setStartFromGroupOffsets();
+            consumer.setCommitOffsetsOnCheckpoints(true);
+        } else {
+            consumer.setStartFromEarliest();
+        }
+    }
+
+    private static AssignerWithPeriodicWatermarks<Activity> createWatermarkAssigner() {
+        if (Config.useAdaptiveWatermarks) {
+            return new AdaptiveWatermarkAssigner(Config.minOutOfOrdernessBound, Config.outOfOrdernessBound,
+                    Config.outOfOrdernessPercentile, Config.outOfOrdernessWindow);
+        }
+        return new BoundedOutOfOrdernessTimestampExtractor<Activity>(Config.outOfOrdernessBound) {
             @Override
             public long extractTimestamp(Activity a) {
                 return a.getCreationTimestamp();
             }
-        });
-        return env
-            .addSource(consumer)
-            .setParallelism(Integer.min(Config.numKafkaPartitions, Config.flinkParallelism));
+        };
     }
 
 }
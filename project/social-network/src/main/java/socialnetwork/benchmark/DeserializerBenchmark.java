@@ -0,0 +1,167 @@
+package socialnetwork.benchmark;
+
+import socialnetwork.util.Activity;
+import socialnetwork.util.ActivityBinaryFormat;
+import socialnetwork.util.ActivityParser;
+import socialnetwork.util.Config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static socialnetwork.util.Helpers.getFileReader;
+
+/**
+ * Compares the String based Activity.fromString with the byte level ActivityParser on records taken from
+ * the cleaned stream files, encoded the same way the Producer puts them on the Kafka topic. The same records
+ * are also decoded from ActivityBinaryFormat, to compare the text and binary formats in size and CPU time.
+ *
+ * Usage: DeserializerBenchmark [recordsPerFile] [rounds]
+ */
+public class DeserializerBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int recordsPerFile = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<byte[]> records = readRecords(recordsPerFile);
+        System.out.println(String.format("Loaded %d records", records.size()));
+
+        verify(records);
+        List<byte[]> binaryRecords = toBinary(records);
+        System.out.println(String.format("Average record size: %.1f bytes as text, %.1f bytes as binary",
+                averageSize(records), averageSize(binaryRecords)));
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runFromString(records);
+            runParser(records, false);
+            runParser(records, true);
+            runBinary(binaryRecords);
+        }
+
+        long fromStringNanos = 0, parserNanos = 0, lazyParserNanos = 0, binaryNanos = 0;
+        long checksum = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            checksum += runFromString(records);
+            fromStringNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            checksum -= runParser(records, false);
+            parserNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            checksum += runParser(records, true);
+            lazyParserNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            checksum += runBinary(binaryRecords);
+            binaryNanos += System.nanoTime() - start;
+        }
+
+        long total = (long) records.size() * rounds;
+        report("Activity.fromString", fromStringNanos, total);
+        report("ActivityParser", parserNanos, total);
+        report("ActivityParser (lazy)", lazyParserNanos, total);
+        report("ActivityBinaryFormat", binaryNanos, total);
+        System.out.println(String.format("Speedup: %.2fx parser, %.2fx lazy parser, %.2fx binary (checksum %d)",
+                (double) fromStringNanos / parserNanos, (double) fromStringNanos / lazyParserNanos,
+                (double) fromStringNanos / binaryNanos, checksum));
+    }
+
+    static List<byte[]> readRecords(int recordsPerFile) throws IOException {
+        final String[] files = Config.getStreamCleanedInputFiles();
+        final String[] prefixs = Config.getStreamPrefixs();
+        List<byte[]> records = new ArrayList<>();
+
+        for (int i = 0; i < files.length; i++) {
+            BufferedReader reader = getFileReader(files[i]);
+            assert reader != null;
+            reader.readLine(); // avoid header
+            String line;
+            int count = 0;
+            while (count++ < recordsPerFile && (line = reader.readLine()) != null) {
+                records.add((prefixs[i] + line).getBytes(StandardCharsets.UTF_8));
+            }
+            reader.close();
+        }
+        return records;
+    }
+
+    /**
+     * Both deserialization paths must produce the same activities.
+     */
+    private static void verify(List<byte[]> records) {
+        ActivityParser parser = new ActivityParser();
+        for (byte[] record : records) {
+            Activity expected = Activity.fromString(new String(record, StandardCharsets.UTF_8));
+            Activity actual = parser.parse(record);
+            if (expected.getClass() != actual.getClass() || !expected.toString().equals(actual.toString())) {
+                throw new IllegalStateException("Parsers disagree: " + expected + " vs " + actual);
+            }
+        }
+        System.out.println("Both parsers produce identical activities");
+    }
+
+    /**
+     * Encodes the records in the binary format and checks that they decode to the same activities.
+     */
+    private static List<byte[]> toBinary(List<byte[]> records) throws IOException {
+        ActivityParser parser = new ActivityParser();
+        ActivityBinaryFormat format = new ActivityBinaryFormat();
+        List<byte[]> binaryRecords = new ArrayList<>(records.size());
+        for (byte[] record : records) {
+            Activity expected = parser.parse(record);
+            byte[] binary = format.encode(expected);
+            Activity actual = format.decode(binary);
+            if (expected.getClass() != actual.getClass() || !expected.toString().equals(actual.toString())
+                    || !expected.getCreationTimestamp().equals(actual.getCreationTimestamp())) {
+                throw new IllegalStateException("Binary format changed " + expected + " into " + actual);
+            }
+            binaryRecords.add(binary);
+        }
+        return binaryRecords;
+    }
+
+    private static double averageSize(List<byte[]> records) {
+        long bytes = 0;
+        for (byte[] record : records) {
+            bytes += record.length;
+        }
+        return (double) bytes / records.size();
+    }
+
+    private static long runFromString(List<byte[]> records) {
+        long checksum = 0;
+        for (byte[] record : records) {
+            checksum += Activity.fromString(new String(record, StandardCharsets.UTF_8)).getCreationTimestamp();
+        }
+        return checksum;
+    }
+
+    private static long runParser(List<byte[]> records, boolean lazy) {
+        ActivityParser parser = new ActivityParser(lazy);
+        long checksum = 0;
+        for (byte[] record : records) {
+            checksum += parser.parse(record).getCreationTimestamp();
+        }
+        return checksum;
+    }
+
+    private static long runBinary(List<byte[]> records) throws IOException {
+        ActivityBinaryFormat format = new ActivityBinaryFormat();
+        long checksum = 0;
+        for (byte[] record : records) {
+            checksum += format.decode(record).getCreationTimestamp();
+        }
+        return checksum;
+    }
+
+    private static void report(String name, long nanos, long records) {
+        System.out.println(String.format("%-22s %8.1f ns/record, %10.0f records/s",
+                name, (double) nanos / records, records * 1e9 / nanos));
+    }
+}
@@ -0,0 +1,162 @@
+package socialnetwork.benchmark;
+
+import org.apache.kafka.common.serialization.Serializer;
+import socialnetwork.util.Activity;
+import socialnetwork.util.ActivityBinaryFormat;
+import socialnetwork.util.ActivityEnvelope;
+import socialnetwork.util.ActivityParser;
+import socialnetwork.util.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compares sending one Kafka record per activity with packing the activities into ActivityEnvelopes, for the
+ * text and the binary format: the payload size and number of Kafka records, the producer side cost of
+ * encoding (and packing) and the consumer side cost of decoding (and unpacking) per activity.
+ *
+ * The activities are sent in event time order, as the Producer does, and packed into envelopes of at most
+ * Config.envelopeSize activities spanning at most Config.envelopeTimeSlice.
+ *
+ * Usage: EnvelopeBenchmark [recordsPerFile] [rounds]
+ */
+public class EnvelopeBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int recordsPerFile = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<Activity> activities = new ArrayList<>();
+        ActivityParser parser = new ActivityParser();
+        for (byte[] record : DeserializerBenchmark.readRecords(recordsPerFile)) {
+            activities.add(parser.parse(record));
+        }
+        activities.sort(Comparator.comparing(Activity::getCreationTimestamp));
+        System.out.println(String.format("Loaded %d activities, envelopes of at most %d activities or %d ms",
+                activities.size(), Config.envelopeSize, Config.envelopeTimeSlice));
+
+        run("text", activities, new Activity.KafkaSerializer(), new Activity.Deserializer(), rounds);
+        run("binary", activities, new ActivityBinaryFormat.KafkaSerializer(), new ActivityBinaryFormat.Deserializer(), rounds);
+    }
+
+    private static void run(String format, List<Activity> activities, Serializer<Activity> serializer,
+                            Activity.Deserializer deserializer, int rounds) throws IOException {
+        ActivityEnvelope.Deserializer envelopeDeserializer = new ActivityEnvelope.Deserializer(deserializer);
+        List<byte[]> records = encode(activities, serializer);
+        List<byte[]> envelopes = pack(activities, serializer);
+        verify(activities, envelopes, envelopeDeserializer);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            encode(activities, serializer);
+            pack(activities, serializer);
+            decode(records, deserializer);
+            unpack(envelopes, envelopeDeserializer);
+        }
+
+        long encodeNanos = 0, packNanos = 0, decodeNanos = 0, unpackNanos = 0;
+        long checksum = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            checksum += encode(activities, serializer).size();
+            encodeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            checksum += pack(activities, serializer).size();
+            packNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            checksum += decode(records, deserializer);
+            decodeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            checksum -= unpack(envelopes, envelopeDeserializer);
+            unpackNanos += System.nanoTime() - start;
+        }
+
+        long total = (long) activities.size() * rounds;
+        report(format + " per activity", records, activities.size(), encodeNanos, decodeNanos, total);
+        report(format + " envelopes", envelopes, activities.size(), packNanos, unpackNanos, total);
+        System.out.println(String.format("%s: %.2fx fewer bytes, %.0fx fewer records (checksum %d)", format,
+                (double) totalSize(records) / totalSize(envelopes), (double) records.size() / envelopes.size(), checksum));
+    }
+
+    private static List<byte[]> encode(List<Activity> activities, Serializer<Activity> serializer) {
+        List<byte[]> records = new ArrayList<>(activities.size());
+        for (Activity activity : activities) {
+            records.add(serializer.serialize(Config.allActivitiesTopic, activity));
+        }
+        return records;
+    }
+
+    // packs the activities the same way as the Producer
+    private static List<byte[]> pack(List<Activity> activities, Serializer<Activity> serializer) {
+        List<byte[]> envelopes = new ArrayList<>();
+        ActivityEnvelope.Builder envelope = new ActivityEnvelope.Builder();
+        for (Activity activity : activities) {
+            long timestamp = activity.getCreationTimestamp();
+            if (envelope.size() >= Config.envelopeSize || envelope.timeSpan(timestamp) > Config.envelopeTimeSlice) {
+                envelopes.add(envelope.build());
+            }
+            envelope.add(serializer.serialize(Config.allActivitiesTopic, activity), timestamp);
+        }
+        if (!envelope.isEmpty()) {
+            envelopes.add(envelope.build());
+        }
+        return envelopes;
+    }
+
+    private static long decode(List<byte[]> records, Activity.Deserializer deserializer) throws IOException {
+        long checksum = 0;
+        for (byte[] record : records) {
+            checksum += deserializer.deserialize(record).getCreationTimestamp();
+        }
+        return checksum;
+    }
+
+    private static long unpack(List<byte[]> envelopes, ActivityEnvelope.Deserializer deserializer) throws IOException {
+        long checksum = 0;
+        for (byte[] envelope : envelopes) {
+            for (Activity activity : deserializer.deserialize(envelope)) {
+                checksum += activity.getCreationTimestamp();
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Unpacking the envelopes must give back all activities, identical and in order.
+     */
+    private static void verify(List<Activity> activities, List<byte[]> envelopes,
+                               ActivityEnvelope.Deserializer deserializer) throws IOException {
+        int i = 0;
+        for (byte[] envelope : envelopes) {
+            for (Activity actual : deserializer.deserialize(envelope)) {
+                Activity expected = activities.get(i++);
+                if (expected.getClass() != actual.getClass() || !expected.toString().equals(actual.toString())) {
+                    throw new IllegalStateException("Envelope changed " + expected + " into " + actual);
+                }
+            }
+        }
+        if (i != activities.size()) {
+            throw new IllegalStateException(String.format("Envelopes hold %d of %d activities", i, activities.size()));
+        }
+    }
+
+    private static long totalSize(List<byte[]> records) {
+        long size = 0;
+        for (byte[] record : records) {
+            size += record.length;
+        }
+        return size;
+    }
+
+    private static void report(String name, List<byte[]> records, int activities, long encodeNanos, long decodeNanos,
+                               long total) {
+        System.out.println(String.format("%-22s %8d records, %6.1f bytes/activity, encode %6.1f ns/activity, decode %6.1f ns/activity",
+                name, records.size(), (double) totalSize(records) / activities,
+                (double) encodeNanos / total, (double) decodeNanos / total));
+    }
+}
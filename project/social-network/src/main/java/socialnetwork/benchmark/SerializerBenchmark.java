@@ -0,0 +1,106 @@
+package socialnetwork.benchmark;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.java.typeutils.runtime.kryo.KryoSerializer;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import socialnetwork.util.Activity;
+import socialnetwork.util.ActivityParser;
+import socialnetwork.util.ActivitySerializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the ActivitySerializer with the Kryo fallback Flink would otherwise use for activities,
+ * in serialized size and in the time of a serialize/deserialize round trip, the work done per record
+ * on every keyed shuffle and state access.
+ *
+ * Usage: SerializerBenchmark [recordsPerFile] [rounds]
+ */
+public class SerializerBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int recordsPerFile = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<Activity> activities = new ArrayList<>();
+        ActivityParser parser = new ActivityParser();
+        for (byte[] record : DeserializerBenchmark.readRecords(recordsPerFile)) {
+            activities.add(parser.parse(record));
+        }
+        System.out.println(String.format("Loaded %d records, Flink type information: %s",
+                activities.size(), TypeInformation.of(Activity.class)));
+
+        TypeSerializer<Activity> activitySerializer = new ActivitySerializer();
+        TypeSerializer<Activity> kryo = new KryoSerializer<>(Activity.class, new ExecutionConfig());
+        verify(activities, activitySerializer);
+        verify(activities, kryo);
+
+        DataOutputSerializer out = new DataOutputSerializer(1 << 16);
+        DataInputDeserializer in = new DataInputDeserializer();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            roundTrip(activities, activitySerializer, out, in);
+            roundTrip(activities, kryo, out, in);
+        }
+
+        long nativeNanos = 0, kryoNanos = 0, nativeBytes = 0, kryoBytes = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            nativeBytes += roundTrip(activities, activitySerializer, out, in);
+            nativeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            kryoBytes += roundTrip(activities, kryo, out, in);
+            kryoNanos += System.nanoTime() - start;
+        }
+
+        long total = (long) activities.size() * rounds;
+        report("ActivitySerializer", nativeNanos, nativeBytes, total);
+        report("KryoSerializer", kryoNanos, kryoBytes, total);
+        System.out.println(String.format("Speedup: %.2fx, size ratio: %.2f",
+                (double) kryoNanos / nativeNanos, (double) nativeBytes / kryoBytes));
+    }
+
+    /**
+     * A round trip through the serializer must give back an identical activity.
+     */
+    private static void verify(List<Activity> activities, TypeSerializer<Activity> serializer) throws IOException {
+        DataOutputSerializer out = new DataOutputSerializer(1 << 16);
+        DataInputDeserializer in = new DataInputDeserializer();
+        for (Activity expected : activities) {
+            out.clear();
+            serializer.serialize(expected, out);
+            in.setBuffer(out.getSharedBuffer(), 0, out.length());
+            Activity actual = serializer.deserialize(in);
+            if (expected.getClass() != actual.getClass() || !expected.toString().equals(actual.toString())
+                    || !expected.getCreationTimestamp().equals(actual.getCreationTimestamp())) {
+                throw new IllegalStateException(serializer.getClass().getSimpleName() + " changed " + expected
+                        + " into " + actual);
+            }
+        }
+        System.out.println(serializer.getClass().getSimpleName() + " round trips all activities");
+    }
+
+    private static long roundTrip(List<Activity> activities, TypeSerializer<Activity> serializer,
+                                  DataOutputSerializer out, DataInputDeserializer in) throws IOException {
+        long bytes = 0;
+        for (Activity activity : activities) {
+            out.clear();
+            serializer.serialize(activity, out);
+            bytes += out.length();
+            in.setBuffer(out.getSharedBuffer(), 0, out.length());
+            serializer.deserialize(in);
+        }
+        return bytes;
+    }
+
+    private static void report(String name, long nanos, long bytes, long records) {
+        System.out.println(String.format("%-20s %8.1f ns/record, %6.1f bytes/record",
+                name, (double) nanos / records, (double) bytes / records));
+    }
+}
@@ -4,12 +4,11 @@ import org.apache.flink.api.java.tuple.Tuple3;
 import org.apache.flink.streaming.api.windowing.time.Time;
 import socialnetwork.util.Config;
 import socialnetwork.util.Helpers;
+import socialnetwork.util.TimestampCodec;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 import static socialnetwork.util.Activity.*;
@@ -21,12 +20,8 @@ class OrderedFileGenerator {
     private final Map<Integer, Tuple3<Integer, Boolean, Comment>> tree = new HashMap<>();
     private final Map<Integer, Post> posts = new HashMap<>();
     private final Map<Integer, List<Comment>> waitingFor = new HashMap<>();
-    private final SimpleDateFormat sdf;
 
-    private OrderedFileGenerator() {
-        sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-        sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
-    }
+    private OrderedFileGenerator() {}
 
     private void addCommentTime(Long key, Comment m){
         if(!commentTimes.containsKey(key)){
@@ -35,7 +30,7 @@ class OrderedFileGenerator {
         commentTimes.get(key).add(m);
     }
 
-    private void recursiveFix(Integer id, Long date) throws ParseException{
+    private void recursiveFix(Integer id, Long date) {
         if(waitingFor.containsKey(id)) { // there are replies waiting for me
             for(Comment comment : waitingFor.remove(id)) {
                 long childDate = comment.getCreationTimestamp();
@@ -45,7 +40,7 @@ class OrderedFileGenerator {
                         diff = Time.seconds(10).toMilliseconds();
                     }
                     childDate += 2 * diff;
-                    comment.setCreationDate(sdf.format(childDate));
+                    comment.setCreationDate(TimestampCodec.format(childDate));
                 }
 
                 tree.put(comment.getId(), new Tuple3<>(id, false, comment));
@@ -108,7 +103,7 @@ class OrderedFileGenerator {
                         diff = Time.seconds(10).toMilliseconds();
                     }
                     likeDate += 2 * diff;
-                    like.setCreationDate(sdf.format(likeDate).replace(" ","T") + ".000Z");
+                    like.setCreationDate(TimestampCodec.format(likeDate).replace(" ","T") + ".000Z");
                 }
                 if(!likeTimes.containsKey(likeDate)) {
                     likeTimes.put(likeDate, new ArrayList<>());
@@ -120,7 +115,7 @@ class OrderedFileGenerator {
             for(Long timestamp : likeTimes.keySet()) {
                 List<Like> m = likeTimes.get(timestamp);
                 for(Like l : m) {
-                    l.setCreationDate(sdf.format(l.getCreationTimestamp()).replace(" ","T") + ".000ZZ");
+                    l.setCreationDate(TimestampCodec.format(l.getCreationTimestamp()).replace(" ","T") + ".000ZZ");
                     likesOutputFile.write(l.getRawString());
                     likesOutputFile.newLine();
                 }
@@ -142,7 +137,7 @@ class OrderedFileGenerator {
                             diff = Time.seconds(10).toMilliseconds();
                         }
                         commentDate += 2 * diff;
-                        comment.setCreationDate(sdf.format(commentDate));
+                        comment.setCreationDate(TimestampCodec.format(commentDate));
                     }
 
                     tree.put(comment.getId(), new Tuple3<>(postId, true, comment));
@@ -162,7 +157,7 @@ class OrderedFileGenerator {
                                 diff = Time.seconds(10).toMilliseconds();
                             }
                             replyDate += 2 * diff;
-                            reply.setCreationDate(sdf.format(replyDate));
+                            reply.setCreationDate(TimestampCodec.format(replyDate));
                         }
 
                         tree.put(reply.getId(), new Tuple3<>(parentId, false, reply));
@@ -183,7 +178,7 @@ class OrderedFileGenerator {
             for(Long timestamp : commentTimes.keySet()) {
                 List<Comment> m = commentTimes.get(timestamp);
                 for(Comment c : m) {
-                    c.setCreationDate(sdf.format(c.getCreationTimestamp()).replace(" ","T") + "ZZ");
+                    c.setCreationDate(TimestampCodec.format(c.getCreationTimestamp()).replace(" ","T") + "ZZ");
                     commentsOutputFile.write(c.getRawString());
                     commentsOutputFile.newLine();
                 }
@@ -199,7 +194,7 @@ class OrderedFileGenerator {
             likesOutputFile.close();
 
             System.out.println("Done");
-        } catch (IOException | ParseException e){
+        } catch (IOException e){
             e.printStackTrace();
         }
     }
@@ -0,0 +1,21 @@
+package socialnetwork.cleaning;
+
+import socialnetwork.util.Config;
+import socialnetwork.util.StreamIndex;
+
+import java.io.IOException;
+
+/**
+ * Builds the StreamIndex of every cleaned stream file, run it after cleaning. Readers of a time range also build
+ * a missing or stale index on first use, see StreamIndex.forFile.
+ */
+class StreamIndexBuilder {
+    public static void main(String[] args) throws IOException {
+        for (String file : Config.getStreamCleanedInputFiles()) {
+            long start = System.currentTimeMillis();
+            StreamIndex index = StreamIndex.forFile(file);
+            System.out.println(String.format("%s%s: %d entries, %.1f s", file, StreamIndex.SUFFIX, index.size(),
+                    (System.currentTimeMillis() - start) / 1000.0));
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.api.java.tuple.Tuple3;
 import socialnetwork.util.Config;
 import socialnetwork.util.Helpers;
+import socialnetwork.util.TimestampCodec;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -11,9 +12,6 @@ import java.io.IOException;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 import static socialnetwork.util.Activity.*;
@@ -204,9 +202,7 @@ class StreamsCleaner {
     }
 
     private static long dateToTimestamp(String date) {
-        return LocalDateTime
-                .from(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss[.S][S][S][X][X]").parse(date))
-                .atZone(ZoneId.of("GMT+0")).toInstant().toEpochMilli();
+        return TimestampCodec.parse(date);
     }
 
     public static void main(String[] args) throws IOException {
@@ -0,0 +1,414 @@
+package socialnetwork.generator;
+
+import socialnetwork.util.Activity;
+import socialnetwork.util.Config;
+import socialnetwork.util.TimestampCodec;
+
+import java.math.BigInteger;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Generates valid posts, comments, replies and likes, grouped by output timestamp like ActivityStreamReader, so
+ * the Producer and the tasks can be stress-tested beyond the size of the LDBC datasets.
+ *
+ * Activities are created at a Poisson rate of event time. Comments and likes go to the recent posts with a Zipf
+ * distribution over recency, so the newest posts are the hot ones, and replies go to the recent comments the same
+ * way, within a maximum depth and number of replies per comment. Persons are drawn from a Zipf distribution over
+ * a fixed permutation of the person ids, so the hot persons are spread over the id space. Every reply's parent and
+ * every post that is commented or liked has been generated before it, with an earlier creation timestamp.
+ *
+ * Like the Producer, a share of the activities is delayed by a random lateness below a bound and sent through a
+ * reorder buffer, so the output is grouped by output timestamp. Several generators can run in parallel with
+ * disjoint ids, see Builder.split. Not thread-safe.
+ */
+public class ActivityGenerator implements Iterator<Map.Entry<Long, List<Activity>>> {
+    private static final String[] BROWSERS = {"Firefox", "Chrome", "Internet Explorer", "Safari", "Opera"};
+    private static final String[] LANGUAGES = {"en", "de", "fr", "es", "zh", "pt", "ru", "ar"};
+    private static final int POOL_SIZE = 256;
+    private static final int MAX_PARENT_ATTEMPTS = 4;
+
+    private final long limit;
+    private final double postShare, commentShare, replyShare;
+    private final int maxDepth;
+    private final int maxBranching;
+    private final double millisPerActivity;
+    private final int lateness;
+    private final double lateShare;
+    private final int idOffset, idStride;
+    private final Random random;
+
+    private final ZipfSampler persons;
+    private final long personMultiplier;
+    private final ZipfSampler recentPosts;
+    private final ZipfSampler recentComments;
+
+    // ring buffers of the last posts and comments, the next one is written at count % length. The ones created
+    // at the current timestamp are not visible yet, so that no activity has a parent with the same timestamp.
+    private final int[] postIds;
+    private long postCount;
+    private long visiblePosts;
+    private final int[] commentIds;
+    private final byte[] commentDepths;
+    private final byte[] commentReplies;
+    private long commentCount;
+    private long visibleComments;
+    private long pendingTimestamp = Long.MIN_VALUE;
+
+    private final String[] contents = new String[POOL_SIZE];
+    private final String[] tags = new String[POOL_SIZE];
+    private final String[] ips = new String[POOL_SIZE];
+
+    private final long startTimestamp;
+    private double clock;
+    private long nextId;
+    private long generated;
+    private final PriorityQueue<Delayed> reorderBuffer = new PriorityQueue<>();
+    private long sequence;
+
+    private ActivityGenerator(Builder builder) {
+        double shares = builder.postShare + builder.commentShare + builder.replyShare + builder.likeShare;
+        if (shares <= 0 || builder.postShare <= 0) {
+            throw new IllegalArgumentException("The activity shares must be positive and include posts");
+        }
+        this.limit = builder.activities;
+        this.postShare = builder.postShare / shares;
+        this.commentShare = builder.commentShare / shares;
+        this.replyShare = builder.replyShare / shares;
+        this.maxDepth = Math.min(Byte.MAX_VALUE, builder.maxDepth);
+        this.maxBranching = Math.min(Byte.MAX_VALUE, builder.maxBranching);
+        this.millisPerActivity = 1000.0 / builder.activitiesPerSecond;
+        this.lateness = builder.lateness;
+        this.lateShare = builder.lateShare;
+        this.idOffset = builder.split;
+        this.idStride = builder.numSplits;
+        this.random = new Random(builder.seed * 31 + builder.split);
+
+        this.persons = new ZipfSampler(builder.persons, builder.personSkew);
+        // any prime above the number of persons is coprime to it, so multiplying permutes the person ids
+        this.personMultiplier = BigInteger.valueOf(builder.persons).nextProbablePrime().longValue();
+        this.recentPosts = new ZipfSampler(builder.activePosts, builder.postSkew);
+        this.recentComments = new ZipfSampler(builder.activeComments, builder.commentSkew);
+        this.postIds = new int[builder.activePosts];
+        this.commentIds = new int[builder.activeComments];
+        this.commentDepths = new byte[builder.activeComments];
+        this.commentReplies = new byte[builder.activeComments];
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            StringBuilder content = new StringBuilder("About topic ").append(i);
+            for (int words = random.nextInt(20); words > 0; words--) {
+                content.append(" word").append(random.nextInt(1000));
+            }
+            contents[i] = content.toString();
+            tags[i] = "[" + random.nextInt(10000) + ", " + random.nextInt(10000) + "]";
+            ips[i] = "10." + (i >> 4) + "." + (i & 15) + "." + random.nextInt(256);
+        }
+        this.startTimestamp = builder.startTimestamp;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A generator with the settings in Config, producing the given split of Config.generatorActivities.
+     */
+    public static ActivityGenerator fromConfig(int split, int numSplits) {
+        long activities = Config.generatorActivities / numSplits
+                + (split < Config.generatorActivities % numSplits ? 1 : 0);
+        return builder()
+                .activities(Config.generatorActivities > 0 ? activities : 0)
+                .persons(Config.generatorPersons, Config.generatorPersonSkew)
+                .posts(Config.generatorActivePosts, Config.generatorPostSkew)
+                .comments(Config.generatorActiveComments, Config.generatorCommentSkew)
+                .shares(Config.generatorPostShare, Config.generatorCommentShare, Config.generatorReplyShare,
+                        Config.generatorLikeShare)
+                .replyTree(Config.generatorMaxReplyDepth, Config.generatorMaxReplies)
+                .activitiesPerSecond(Config.generatorActivitiesPerSecond / numSplits)
+                .lateness(Config.generatorLateness, Config.generatorLateShare)
+                .seed(Config.generatorSeed)
+                .split(split, numSplits)
+                .build();
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !reorderBuffer.isEmpty();
+    }
+
+    /**
+     * All activities with the next output timestamp, as an entry of that timestamp to the activities.
+     */
+    @Override
+    public Map.Entry<Long, List<Activity>> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        long timestamp = reorderBuffer.peek().outputTimestamp;
+        List<Activity> activities = new ArrayList<>(1);
+        while (!reorderBuffer.isEmpty() && reorderBuffer.peek().outputTimestamp == timestamp) {
+            activities.add(reorderBuffer.poll().activity);
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(timestamp, activities);
+    }
+
+    public long getGenerated() {
+        return generated;
+    }
+
+    // generates until the head of the reorder buffer is complete, no activity generated later can be due before it
+    private void fill() {
+        while (!isExhausted() && (reorderBuffer.isEmpty()
+                || reorderBuffer.peek().outputTimestamp >= currentTimestamp())) {
+            Activity activity = generate(currentTimestamp());
+            long outputTimestamp = activity.getCreationTimestamp();
+            if (lateness > 0 && random.nextDouble() < lateShare) {
+                outputTimestamp += random.nextInt(lateness);
+            }
+            reorderBuffer.add(new Delayed(outputTimestamp, sequence++, activity));
+            generated++;
+            clock -= Math.log(1 - random.nextDouble()) * millisPerActivity;
+        }
+    }
+
+    private boolean isExhausted() {
+        return (limit > 0 && generated >= limit) || nextId * idStride + idOffset > Integer.MAX_VALUE;
+    }
+
+    private long currentTimestamp() {
+        return startTimestamp + (long) clock;
+    }
+
+    private Activity generate(long timestamp) {
+        if (timestamp > pendingTimestamp) {
+            visiblePosts = postCount;
+            visibleComments = commentCount;
+            pendingTimestamp = timestamp;
+        }
+        double kind = random.nextDouble();
+        if (window(postIds.length, postCount, visiblePosts) == 0 || kind < postShare) {
+            return post(timestamp);
+        }
+        if (kind < postShare + commentShare) {
+            return comment(timestamp);
+        }
+        if (kind < postShare + commentShare + replyShare) {
+            return reply(timestamp);
+        }
+        int person = samplePerson();
+        return new Activity.Like(person, postIds[recent(recentPosts, postCount, visiblePosts)], timestamp);
+    }
+
+    private Activity post(long timestamp) {
+        int id = nextId();
+        int person = samplePerson();
+        int pool = person % POOL_SIZE;
+        postIds[(int) (postCount++ % postIds.length)] = id;
+        return new Activity.Post(id, person, timestamp, id % 10 == 0 ? "photo" + id + ".jpg" : "", ips[pool],
+                BROWSERS[person % BROWSERS.length], LANGUAGES[person % LANGUAGES.length],
+                contents[random.nextInt(POOL_SIZE)], tags[random.nextInt(POOL_SIZE)], person / 10, pool);
+    }
+
+    private Activity comment(long timestamp) {
+        int id = nextId();
+        int person = samplePerson();
+        int post = postIds[recent(recentPosts, postCount, visiblePosts)];
+        addComment(id, 1);
+        return new Activity.Comment(id, person, timestamp, ips[person % POOL_SIZE], BROWSERS[person % BROWSERS.length],
+                contents[random.nextInt(POOL_SIZE)], post, person % POOL_SIZE);
+    }
+
+    // a reply to a recent comment with room for it, or a comment if none is found
+    private Activity reply(long timestamp) {
+        boolean anyVisible = window(commentIds.length, commentCount, visibleComments) > 0;
+        for (int attempt = 0; anyVisible && attempt < MAX_PARENT_ATTEMPTS; attempt++) {
+            int parent = recent(recentComments, commentCount, visibleComments);
+            if (commentDepths[parent] < maxDepth && commentReplies[parent] < maxBranching) {
+                commentReplies[parent]++;
+                int id = nextId();
+                int person = samplePerson();
+                int parentId = commentIds[parent];
+                addComment(id, commentDepths[parent] + 1);
+                return new Activity.Reply(id, person, timestamp, ips[person % POOL_SIZE],
+                        BROWSERS[person % BROWSERS.length], contents[random.nextInt(POOL_SIZE)], parentId,
+                        person % POOL_SIZE);
+            }
+        }
+        return comment(timestamp);
+    }
+
+    private void addComment(int id, int depth) {
+        int slot = (int) (commentCount++ % commentIds.length);
+        commentIds[slot] = id;
+        commentDepths[slot] = (byte) depth;
+        commentReplies[slot] = 0;
+    }
+
+    // the ring buffer slot of a recent visible entry, rank 1 being the newest one
+    private int recent(ZipfSampler sampler, long count, long visible) {
+        int length = sampler.getNumberOfRanks();
+        long window = window(length, count, visible);
+        long rank = sampler.sample(random);
+        if (rank > window) {
+            rank = 1 + (rank - 1) % window;
+        }
+        return (int) ((visible - rank) % length);
+    }
+
+    // the number of visible entries that are not overwritten by pending ones yet
+    private static long window(int length, long count, long visible) {
+        return Math.max(0, Math.min(visible, length - (count - visible)));
+    }
+
+    private int samplePerson() {
+        int n = persons.getNumberOfRanks();
+        return (int) ((persons.sample(random) - 1) * personMultiplier % n);
+    }
+
+    private int nextId() {
+        return (int) (nextId++ * idStride + idOffset);
+    }
+
+    private static final class Delayed implements Comparable<Delayed> {
+        final long outputTimestamp;
+        final long sequence;
+        final Activity activity;
+
+        Delayed(long outputTimestamp, long sequence, Activity activity) {
+            this.outputTimestamp = outputTimestamp;
+            this.sequence = sequence;
+            this.activity = activity;
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            int c = Long.compare(outputTimestamp, other.outputTimestamp);
+            return c != 0 ? c : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public static class Builder {
+        private long activities;
+        private int persons = 10000;
+        private double personSkew = 1.0;
+        private int activePosts = 10000;
+        private double postSkew = 1.0;
+        private int activeComments = 100000;
+        private double commentSkew = 1.0;
+        private double postShare = 0.1, commentShare = 0.3, replyShare = 0.3, likeShare = 0.3;
+        private int maxDepth = 8;
+        private int maxBranching = 4;
+        private double activitiesPerSecond = 10;
+        private int lateness;
+        private double lateShare = 1.0;
+        private long seed = 42;
+        private int split = 0, numSplits = 1;
+        private long startTimestamp = TimestampCodec.parse("2012-02-01T00:00:00Z");
+
+        /**
+         * @param activities number of activities to generate, 0 for no limit
+         */
+        public Builder activities(long activities) {
+            this.activities = activities;
+            return this;
+        }
+
+        /**
+         * @param skew Zipf exponent of the activities per person, 0 for uniform
+         */
+        public Builder persons(int persons, double skew) {
+            this.persons = persons;
+            this.personSkew = skew;
+            return this;
+        }
+
+        /**
+         * @param active number of the most recent posts that get comments and likes
+         * @param skew   Zipf exponent over their recency
+         */
+        public Builder posts(int active, double skew) {
+            this.activePosts = active;
+            this.postSkew = skew;
+            return this;
+        }
+
+        /**
+         * @param active number of the most recent comments and replies that get replies
+         * @param skew   Zipf exponent over their recency
+         */
+        public Builder comments(int active, double skew) {
+            this.activeComments = active;
+            this.commentSkew = skew;
+            return this;
+        }
+
+        /**
+         * Relative shares of the activity types, they need not sum up to 1.
+         */
+        public Builder shares(double posts, double comments, double replies, double likes) {
+            this.postShare = posts;
+            this.commentShare = comments;
+            this.replyShare = replies;
+            this.likeShare = likes;
+            return this;
+        }
+
+        /**
+         * @param maxDepth     maximum depth of a reply, comments to a post have depth 1
+         * @param maxBranching maximum number of replies to one comment or reply
+         */
+        public Builder replyTree(int maxDepth, int maxBranching) {
+            this.maxDepth = maxDepth;
+            this.maxBranching = maxBranching;
+            return this;
+        }
+
+        /**
+         * Average number of activities per second of event time.
+         */
+        public Builder activitiesPerSecond(double activitiesPerSecond) {
+            this.activitiesPerSecond = activitiesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param lateness exclusive upper bound of the random lateness in milliseconds, 0 to generate in order
+         * @param share    share of the activities that are delayed
+         */
+        public Builder lateness(int lateness, double share) {
+            this.lateness = lateness;
+            this.lateShare = share;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Makes this generator one of numSplits parallel ones, it generates ids equal to split modulo numSplits.
+         */
+        public Builder split(int split, int numSplits) {
+            this.split = split;
+            this.numSplits = numSplits;
+            return this;
+        }
+
+        public Builder startTimestamp(long startTimestamp) {
+            this.startTimestamp = startTimestamp;
+            return this;
+        }
+
+        public ActivityGenerator build() {
+            return new ActivityGenerator(this);
+        }
+    }
+}
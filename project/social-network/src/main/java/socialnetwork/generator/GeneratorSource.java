@@ -0,0 +1,79 @@
+package socialnetwork.generator;
+
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.streaming.api.functions.source.RichParallelSourceFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import socialnetwork.util.Activity;
+import socialnetwork.util.Config;
+import socialnetwork.util.ReplayPacer;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates activities straight into the job, without ZooKeeper and Kafka, to find the throughput limit of the
+ * tasks. Every subtask runs its own ActivityGenerator split of the Config settings, with disjoint ids.
+ *
+ * Like FileReplaySource, a subtask finishes once its generator is exhausted, which emits the final watermark.
+ */
+public class GeneratorSource extends RichParallelSourceFunction<Activity> {
+    private static final Logger logger = LoggerFactory.getLogger("SocialNetwork");
+
+    private final Set<Activity.ActivityType> requiredTypes;
+    private final Set<Activity.Field> requiredFields;
+    private final double recordsPerSecond;
+    private volatile boolean running = true;
+
+    /**
+     * @param requiredTypes    activity types to emit, the others are still generated but dropped
+     * @param requiredFields   wide activity fields to keep, all others are dropped in the source
+     * @param recordsPerSecond total rate of all subtasks, 0 for as fast as possible
+     */
+    public GeneratorSource(Set<Activity.ActivityType> requiredTypes, Set<Activity.Field> requiredFields,
+                           double recordsPerSecond) {
+        this.requiredTypes = EnumSet.copyOf(requiredTypes);
+        this.requiredFields = EnumSet.copyOf(requiredFields);
+        this.recordsPerSecond = recordsPerSecond;
+    }
+
+    @Override
+    public void run(SourceContext<Activity> ctx) throws Exception {
+        RuntimeContext context = getRuntimeContext();
+        int subtask = context.getIndexOfThisSubtask();
+        int parallelism = context.getNumberOfParallelSubtasks();
+        ActivityGenerator generator = ActivityGenerator.fromConfig(subtask, parallelism);
+        ReplayPacer pacer = recordsPerSecond > 0 ? ReplayPacer.fixedRate(recordsPerSecond / parallelism, 100) : null;
+        long activities = 0;
+        while (running && generator.hasNext()) {
+            Map.Entry<Long, List<Activity>> entry = generator.next();
+            for (Activity activity : entry.getValue()) {
+                if (pacer != null) {
+                    pacer.await(entry.getKey());
+                }
+                if (!requiredTypes.contains(activity.getType())) {
+                    continue;
+                }
+                if (requiredFields.size() < Activity.Field.values().length) {
+                    activity.retainFields(requiredFields);
+                }
+                if (Config.trackLatency) {
+                    activity.setSendTime(System.currentTimeMillis());
+                }
+                synchronized (ctx.getCheckpointLock()) {
+                    ctx.collect(activity);
+                }
+                activities++;
+            }
+        }
+        logger.info("Generator source {} emitted {} of {} generated activities", subtask, activities,
+                generator.getGenerated());
+    }
+
+    @Override
+    public void cancel() {
+        running = false;
+    }
+}
@@ -2,7 +2,27 @@ package socialnetwork.task;
 
 import org.apache.flink.streaming.api.datastream.DataStream;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import socialnetwork.util.Activity;
+
+import java.util.EnumSet;
+import java.util.Set;
 
 public abstract class TaskBase <IN> {
     public abstract void buildPipeline(StreamExecutionEnvironment env, DataStream<IN> inputStream);
+
+    /**
+     * The wide activity fields this pipeline reads. The source drops the fields no pipeline needs before the
+     * first network exchange, so override this to declare less than all of them.
+     */
+    public Set<Activity.Field> getRequiredFields() {
+        return EnumSet.allOf(Activity.Field.class);
+    }
+
+    /**
+     * The activity types this pipeline reads. With per-type topics the source only subscribes to the types some
+     * pipeline needs, so override this to declare less than all of them.
+     */
+    public Set<Activity.ActivityType> getRequiredTypes() {
+        return EnumSet.complementOf(EnumSet.of(Activity.ActivityType.Tombstone));
+    }
 }
@@ -35,7 +35,9 @@ import org.slf4j.LoggerFactory;
 import socialnetwork.task.TaskBase;
 import socialnetwork.util.Activity;
 import socialnetwork.util.Config;
+import socialnetwork.util.LatencyRecorder;
 
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -43,6 +45,11 @@ public class ActivePostStatistician extends TaskBase <Activity> {
     private final static Logger logger = LoggerFactory.getLogger("Task1");
     private final OutputTag<Activity> lateTag = new OutputTag<Activity>("LATE:") {};
 
+    @Override
+    public Set<Activity.Field> getRequiredFields() {
+        return EnumSet.noneOf(Activity.Field.class);
+    }
+
     @Override
     public void buildPipeline(StreamExecutionEnvironment env, DataStream<Activity> inputStream) {
 
@@ -65,7 +72,7 @@ public class ActivePostStatistician extends TaskBase <Activity> {
                 .setParallelism(1)
                 .name("late-comments");
 
-        commentsCountStream
+        LatencyRecorder.record(commentsCountStream, "comment-counts", c -> c.sendTime, c -> c.windowEnd)
                 .writeAsText(Config.commentCountsOutputFilename, FileSystem.WriteMode.OVERWRITE)
                 .setParallelism(1)
                 .name("comment-counts");
@@ -77,7 +84,7 @@ public class ActivePostStatistician extends TaskBase <Activity> {
                 .timeWindow(Time.hours(12), Time.minutes(30))
                 .aggregate(new SumUpCounts(), new SetWindowEndAndKey());
 
-        repliesCountStream
+        LatencyRecorder.record(repliesCountStream, "reply-counts", c -> c.sendTime, c -> c.windowEnd)
                 .writeAsText(Config.replyCountsOutputFilename, FileSystem.WriteMode.OVERWRITE)
                 .setParallelism(1)
                 .name("reply-counts");
@@ -95,13 +102,13 @@ public class ActivePostStatistician extends TaskBase <Activity> {
                 .timeWindow(Time.hours(12), Time.hours(1))
                 .aggregate(new UnionUniqueUsers(), new SetWindowEndAndKey());
 
-        usersCountStream
+        LatencyRecorder.record(usersCountStream, "user-counts", c -> c.sendTime, c -> c.windowEnd)
                 .writeAsText(Config.userCountsOutputFilename, FileSystem.WriteMode.OVERWRITE)
                 .setParallelism(1)
                 .name("user-counts");
     }
 
-    public class CountMessages implements AggregateFunction<Activity, Integer, PostWithCount> {
+    public class CountMessages implements AggregateFunction<Activity, PostWithCount, PostWithCount> {
         private Activity.ActivityType type;
 
         private CountMessages(Activity.ActivityType type) {
@@ -109,17 +116,27 @@ public class ActivePostStatistician extends TaskBase <Activity> {
         }
 
         @Override
-        public Integer createAccumulator() {
-            return 0;
+        public PostWithCount createAccumulator() {
+            return new PostWithCount(getResultType(), 0);
         }
 
+        // the send time is that of the newest activity of the window, counted or not, as every one of them can
+        // hold back the window
         @Override
-        public Integer add(Activity value, Integer count) {
-            return value.getType() == this.type ? count + 1 : count;
+        public PostWithCount add(Activity value, PostWithCount acc) {
+            if (value.getType() == this.type) {
+                acc.count++;
+            }
+            acc.sendTime = Math.max(acc.sendTime, value.getSendTime());
+            return acc;
         }
 
         @Override
-        public PostWithCount getResult(Integer aggregate) {
+        public PostWithCount getResult(PostWithCount acc) {
+            return acc;
+        }
+
+        private PostWithCount.PostWithCountType getResultType() {
             PostWithCount.PostWithCountType type;
             switch (this.type) {
                 case Reply:
@@ -130,14 +147,16 @@ public class ActivePostStatistician extends TaskBase <Activity> {
                     break;
                 default:
                     type = PostWithCount.PostWithCountType.Others;
-                    logger.error("AggregateFunction CountMessages returning type Others with aggregate {}", aggregate);
+                    logger.error("AggregateFunction CountMessages counting type Others for {}", this.type);
             }
-            return new PostWithCount(type, aggregate);
+            return type;
         }
 
         @Override
-        public Integer merge(Integer acc1, Integer acc2) {
-            return acc1 + acc2;
+        public PostWithCount merge(PostWithCount acc1, PostWithCount acc2) {
+            acc1.count += acc2.count;
+            acc1.sendTime = Math.max(acc1.sendTime, acc2.sendTime);
+            return acc1;
         }
     }
 
@@ -180,6 +199,7 @@ public class ActivePostStatistician extends TaskBase <Activity> {
         public Integer postId;
         public Integer count;
         public Long windowEnd;
+        public long sendTime;  // of the newest activity counted, see LatencyRecorder
 
         PostWithCount(PostWithCountType t, Integer c) { type = t; count = c; }
 
@@ -204,6 +224,7 @@ public class ActivePostStatistician extends TaskBase <Activity> {
             acc.type = val.type;
             acc.postId = val.postId;
             acc.count += val.count;
+            acc.sendTime = Math.max(acc.sendTime, val.sendTime);
             return acc;
         }
 
@@ -217,54 +238,68 @@ public class ActivePostStatistician extends TaskBase <Activity> {
             assert acc1.type.equals(acc2.type);
             assert acc1.postId.equals(acc2.postId);
             acc1.count += acc2.count;
+            acc1.sendTime = Math.max(acc1.sendTime, acc2.sendTime);
             return acc1;
         }
     }
 
-    public class CountUniqueUsers implements AggregateFunction<Activity, Set<Integer>, Set<Integer>> {
+    public static class UniqueUsers {
+        public Set<Integer> users = new HashSet<>();
+        public long sendTime;  // of the newest activity, see LatencyRecorder
+
+        void addAll(UniqueUsers other) {
+            users.addAll(other.users);
+            sendTime = Math.max(sendTime, other.sendTime);
+        }
+    }
+
+    public class CountUniqueUsers implements AggregateFunction<Activity, UniqueUsers, UniqueUsers> {
         @Override
-        public Set<Integer> createAccumulator() {
-            return new HashSet<>();
+        public UniqueUsers createAccumulator() {
+            return new UniqueUsers();
         }
 
         @Override
-        public Set<Integer> add(Activity activity, Set<Integer> uniqueUsers) {
+        public UniqueUsers add(Activity activity, UniqueUsers uniqueUsers) {
             Integer personId = activity.getPersonId();
-            uniqueUsers.add(personId);
+            uniqueUsers.users.add(personId);
+            uniqueUsers.sendTime = Math.max(uniqueUsers.sendTime, activity.getSendTime());
             return uniqueUsers;
         }
 
         @Override
-        public Set<Integer> getResult(Set<Integer> uniqueUsers) {
+        public UniqueUsers getResult(UniqueUsers uniqueUsers) {
             return uniqueUsers;
         }
 
         @Override
-        public Set<Integer> merge(Set<Integer> s1, Set<Integer> s2) {
+        public UniqueUsers merge(UniqueUsers s1, UniqueUsers s2) {
             s1.addAll(s2);
             return s1;
         }
     }
 
-    public class UnionUniqueUsers implements AggregateFunction<Tuple2<Integer, Set<Integer>>, Set<Integer>, PostWithCount> {
+    public class UnionUniqueUsers implements AggregateFunction<Tuple2<Integer, UniqueUsers>, UniqueUsers, PostWithCount> {
         @Override
-        public Set<Integer> createAccumulator() {
-            return new HashSet<>();
+        public UniqueUsers createAccumulator() {
+            return new UniqueUsers();
         }
 
         @Override
-        public Set<Integer> add(Tuple2<Integer, Set<Integer>> val, Set<Integer> acc) {
+        public UniqueUsers add(Tuple2<Integer, UniqueUsers> val, UniqueUsers acc) {
             acc.addAll(val.f1);
             return acc;
         }
 
         @Override
-        public PostWithCount getResult(Set<Integer> acc) {
-            return new PostWithCount(PostWithCount.PostWithCountType.Person, acc.size());
+        public PostWithCount getResult(UniqueUsers acc) {
+            PostWithCount count = new PostWithCount(PostWithCount.PostWithCountType.Person, acc.users.size());
+            count.sendTime = acc.sendTime;
+            return count;
         }
 
         @Override
-        public Set<Integer> merge(Set<Integer> acc1, Set<Integer> acc2) {
+        public UniqueUsers merge(UniqueUsers acc1, UniqueUsers acc2) {
             acc1.addAll(acc2);
             return acc1;
         }
@@ -25,8 +25,8 @@ import org.apache.flink.api.common.state.ValueState;
 import org.apache.flink.api.common.state.ValueStateDescriptor;
 import org.apache.flink.api.common.typeinfo.TypeHint;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
-import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.api.java.tuple.Tuple4;
 import org.apache.flink.configuration.Configuration;
 import org.apache.flink.core.fs.FileSystem;
 import org.apache.flink.streaming.api.datastream.DataStream;
@@ -43,9 +43,11 @@ import org.slf4j.LoggerFactory;
 import socialnetwork.task.TaskBase;
 import socialnetwork.util.Activity;
 import socialnetwork.util.Config;
+import socialnetwork.util.LatencyRecorder;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -55,18 +57,26 @@ public class AnomalousUserDetector extends TaskBase <Activity> {
     private final static Logger logger = LoggerFactory.getLogger("Task3");
     private final OutputTag<Activity> lateTag = new OutputTag<Activity>("LATE:") {};
 
+    @Override
+    public Set<Activity.Field> getRequiredFields() {
+        return EnumSet.of(Activity.Field.Content);  // for the content features
+    }
+
     @Override
     public void buildPipeline(StreamExecutionEnvironment env, DataStream<Activity> inputStream) {
 
-        DataStream<Tuple3<Long, Integer, Features>> userFeatureStream = inputStream
+        DataStream<Tuple4<Long, Integer, Features, Long>> userFeatureStream = inputStream
                 .keyBy(Activity::getPersonId)
                 .flatMap(new ComputeFeatures());
 
-        DataStream<Tuple2<Long, Integer>> flaggedUserStream = userFeatureStream
+        DataStream<Tuple3<Long, Integer, Long>> flaggedUserStream = userFeatureStream
                 .broadcast()
                 .flatMap(new UnusualUserDetector());
 
-        flaggedUserStream
+        // the send time is only carried for LatencyRecorder, the output keeps its format
+        LatencyRecorder.record(flaggedUserStream, "anomalies", t -> t.f2, null)
+                .project(0, 1)
+                .setParallelism(1)
                 .writeAsText(Config.anomaliesOutputFilename, FileSystem.WriteMode.OVERWRITE)
                 .setParallelism(1)
                 .name("anomalies");
@@ -206,8 +216,9 @@ public class AnomalousUserDetector extends TaskBase <Activity> {
         return 1.0 * uniqueWords.size() / splits.length;
     }
 
+    // emits the creation timestamp, person, features and send time of every activity
     public static class ComputeFeatures extends RichFlatMapFunction<
-            Activity, Tuple3<Long, Integer, Features>> {
+            Activity, Tuple4<Long, Integer, Features, Long>> {
 
         private transient ValueState<Features> userFeatures;
         private transient ValueState<Tuple3<Long, Long, Long>> userLastThreeActivities;
@@ -232,7 +243,7 @@ public class AnomalousUserDetector extends TaskBase <Activity> {
 
         @Override
         public void flatMap(Activity in,
-                            Collector<Tuple3<Long, Integer, Features>> out) throws IOException {
+                            Collector<Tuple4<Long, Integer, Features, Long>> out) throws IOException {
             Features currentUserFeatures = userFeatures.value();
             Tuple3<Long, Long, Long> currentUserLastThreeActivities = userLastThreeActivities.value();
 
@@ -241,12 +252,13 @@ public class AnomalousUserDetector extends TaskBase <Activity> {
             currentUserLastThreeActivities.f0 = in.getCreationTimestamp();
             currentUserFeatures.update(in, currentUserLastThreeActivities);
 
-            out.collect(new Tuple3<>(in.getCreationTimestamp(), in.getPersonId(), new Features(currentUserFeatures)));
+            out.collect(new Tuple4<>(in.getCreationTimestamp(), in.getPersonId(), new Features(currentUserFeatures),
+                    in.getSendTime()));
         }
     }
 
     public static class UnusualUserDetector extends RichFlatMapFunction<
-            Tuple3<Long, Integer, Features>, Tuple2<Long, Integer>> {
+            Tuple4<Long, Integer, Features, Long>, Tuple3<Long, Integer, Long>> {
 
         private Signatures globalSignatures;
         private int parallelInstanceId;
@@ -261,14 +273,14 @@ public class AnomalousUserDetector extends TaskBase <Activity> {
         }
 
         @Override
-        public void flatMap(Tuple3<Long, Integer, Features> in,
-                            Collector<Tuple2<Long, Integer>> out) throws IOException {
+        public void flatMap(Tuple4<Long, Integer, Features, Long> in,
+                            Collector<Tuple3<Long, Integer, Long>> out) throws IOException {
             // update global signatures (each subtask keeps its own copy, but it's updated by all activities)
             globalSignatures.update(in.f2);
 
             // if I am responsible for this activity
             if (in.f1 % numParallelInstances == parallelInstanceId && !globalSignatures.isNormal(in.f2)) {
-                out.collect(new Tuple2<>(in.f0, in.f1));
+                out.collect(new Tuple3<>(in.f0, in.f1, in.f3));
             }
         }
     }
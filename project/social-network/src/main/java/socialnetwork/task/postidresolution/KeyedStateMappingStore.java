@@ -0,0 +1,42 @@
+package socialnetwork.task.postidresolution;
+
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.api.common.state.MapState;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.typeinfo.Types;
+
+/**
+ * Keeps the mappings as a union-find forest in the keyed MapState of PostIdResolver.WriteMappings, so they are
+ * checkpointed with the job and can grow beyond the heap with the RocksDB backend. Keyed state is only visible
+ * under one key, so PostIdResolver sends all activities to WriteMappings under a single key, and the mappings
+ * are stored and looked up in one subtask. The key cannot be split, as a chain of replies can cross any keys.
+ * This makes it a single-writer reference store, whatever the parallelism of the job, which should not be used
+ * when performance matters.
+ */
+public class KeyedStateMappingStore extends ParentPointerMappingStore {
+    private transient MapState<Integer, Long> parents;
+
+    @Override
+    public void open(RuntimeContext context) {
+        parents = context.getMapState(new MapStateDescriptor<>("parents", Types.INT, Types.LONG));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isKeyed() {
+        return true;
+    }
+
+    @Override
+    Long getParent(int message) throws Exception {
+        return parents.get(message);
+    }
+
+    @Override
+    void setParent(int message, long parent) throws Exception {
+        parents.put(message, parent);
+    }
+}
@@ -0,0 +1,68 @@
+package socialnetwork.task.postidresolution;
+
+import org.apache.flink.api.common.functions.RuntimeContext;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where PostIdResolver keeps the parent of every comment and reply, to resolve the post id of a reply by following
+ * the chain of its parents up to the comment that maps to the post. Comments, replies and posts have overlapping
+ * ids, so the stores keep apart whether a parent is a post.
+ *
+ * All operations complete asynchronously, stores that answer in-process complete them right away. A store is
+ * created when the job is built, and opened in the function that uses it.
+ */
+public interface MappingStore extends Serializable {
+
+    /**
+     * The store for the name in Config.mappingStore: "memcached", "state" or "union-find". The "state" store is a
+     * single-writer reference store that does not scale with the parallelism, see KeyedStateMappingStore.
+     */
+    static MappingStore forName(String name) {
+        switch (name) {
+            case "memcached":
+                return new MemcachedMappingStore();
+            case "state":
+                return new KeyedStateMappingStore();
+            case "union-find":
+                return new UnionFindMappingStore();
+            default:
+                throw new IllegalArgumentException("Unknown mapping store " + name);
+        }
+    }
+
+    void open(RuntimeContext context) throws Exception;
+
+    void close();
+
+    /**
+     * Whether the mappings are in the keyed state of the function that opened the store, so that they are only
+     * visible to activities with the same key.
+     */
+    boolean isKeyed();
+
+    /**
+     * Maps the comment to its post.
+     */
+    CompletableFuture<Void> putComment(int comment, int post);
+
+    /**
+     * Maps the reply to its parent comment or reply and resolves its post id. The reply ends up mapped to its
+     * post, or if the chain ends at a comment or reply that is not stored yet, to that one, so that the next
+     * lookup goes on from there. Completes with the post id, or null if the post id is unresolved.
+     */
+    CompletableFuture<Integer> putReply(int reply, int parent);
+
+    /**
+     * Sends the lookups the store holds back to batch them right away, before a caller waits for them.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Resolves the post id of a stored comment or reply, and maps it straight to its post if found. Completes
+     * with the post id, or null if the chain still ends at a comment or reply that is not stored.
+     */
+    CompletableFuture<Integer> resolve(int message);
+}
@@ -0,0 +1,241 @@
+package socialnetwork.task.postidresolution;
+
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.OperationFuture;
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import socialnetwork.util.Config;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the mappings in the memcached at localhost:11211, shared by all subtasks, as "r_<id>" of a comment or
+ * reply to "p_<id>" of its post or "r_<id>" of its parent. Every hop of a chain is a lookup, issued once the
+ * previous one is answered.
+ *
+ * Replies cluster around a few hot threads, so the post ids found are kept in a TinyLfuCache of
+ * Config.nearCacheSize entries per function instance, which answers the lookups of the comments and replies in it
+ * without a round trip. Only mappings to posts are cached, they never change. Its hit rate, evictions and size are
+ * exported as the gauges nearCache.hitRate, nearCache.evictions and nearCache.size.
+ *
+ * With Config.batchLookups, the chains to follow are collected for Config.lookupBatchInterval or until
+ * Config.lookupBatchSize are waiting, and then followed level by level: one getBulk looks up the next key of all
+ * chains of the batch that are not complete yet. A batch then costs as many round trips as its longest chain,
+ * instead of one per key.
+ */
+public class MemcachedMappingStore implements MappingStore {
+    private transient MemcachedClient mc;
+    private transient TinyLfuCache nearCache;
+    private transient List<Chain> batch;
+    private transient ScheduledExecutorService flusher;
+
+    @Override
+    public void open(RuntimeContext context) throws Exception {
+        mc = new MemcachedClient(new InetSocketAddress("localhost", 11211));
+        if (Config.nearCacheSize > 0) {
+            nearCache = new TinyLfuCache(Config.nearCacheSize);
+            MetricGroup metrics = context.getMetricGroup().addGroup("nearCache");
+            metrics.gauge("hitRate", (Gauge<Double>) () -> nearCache.hitRate());
+            metrics.gauge("evictions", (Gauge<Long>) () -> nearCache.evictions());
+            metrics.gauge("size", (Gauge<Integer>) () -> nearCache.size());
+        }
+        if (Config.batchLookups) {
+            batch = new ArrayList<>();
+            flusher = Executors.newSingleThreadScheduledExecutor();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        mc.shutdown();
+    }
+
+    @Override
+    public boolean isKeyed() {
+        return false;
+    }
+
+    @Override
+    public CompletableFuture<Void> putComment(int comment, int post) {
+        if (nearCache != null) {
+            nearCache.put(comment, post);
+        }
+        return set("r_" + comment, "p_" + post);
+    }
+
+    @Override
+    public CompletableFuture<Integer> putReply(int reply, int parent) {
+        // save the progress made, also if unresolved
+        return follow("r_" + parent).thenCompose(end -> set("r_" + reply, end).thenApply(stored -> postOf(end)));
+    }
+
+    @Override
+    public CompletableFuture<Integer> resolve(int message) {
+        return follow("r_" + message).thenCompose(end -> end.startsWith("p_") ?
+                set("r_" + message, end).thenApply(stored -> postOf(end)) :
+                CompletableFuture.completedFuture(null));
+    }
+
+    // completes with the post at the end of the chain from the key, or the first key of the chain with no mapping
+    private CompletableFuture<String> follow(String key) {
+        Chain chain = new Chain(key);
+        if (!chain.cached()) {
+            if (Config.batchLookups) {
+                enqueue(chain);
+            } else {
+                lookUp(chain);
+            }
+        }
+        return chain.end;
+    }
+
+    private void lookUp(Chain chain) {
+        mc.asyncGet(chain.key).addListener(future -> {
+            try {
+                if (!chain.advance((String) future.get())) {
+                    lookUp(chain);
+                }
+            } catch (Exception e) {
+                chain.end.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void enqueue(Chain chain) {
+        List<Chain> full = null;
+        synchronized (this) {
+            batch.add(chain);
+            if (batch.size() >= Config.lookupBatchSize) {
+                full = batch;
+                batch = new ArrayList<>();
+            } else if (batch.size() == 1) {
+                flusher.schedule(this::flush, Config.lookupBatchInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            lookUp(full);
+        }
+    }
+
+    @Override
+    public void flush() {
+        List<Chain> chains;
+        synchronized (this) {
+            if (batch == null || batch.isEmpty()) {
+                return;
+            }
+            chains = batch;
+            batch = new ArrayList<>();
+        }
+        lookUp(chains);
+    }
+
+    // looks up the next key of all chains with one getBulk, and then the keys of the level after that
+    private void lookUp(List<Chain> level) {
+        Set<String> keys = new HashSet<>();
+        for (Chain chain : level) {
+            keys.add(chain.key);
+        }
+        mc.asyncGetBulk(keys).addListener(future -> {
+            List<Chain> next = new ArrayList<>();
+            try {
+                Map<?, ?> parents = (Map<?, ?>) future.get();
+                for (Chain chain : level) {
+                    if (!chain.advance((String) parents.get(chain.key))) {
+                        next.add(chain);
+                    }
+                }
+            } catch (Exception e) {
+                for (Chain chain : level) {
+                    chain.end.completeExceptionally(e);
+                }
+                return;
+            }
+            if (!next.isEmpty()) {
+                lookUp(next);
+            }
+        });
+    }
+
+    // a chain being followed from one key to the next, up to its post
+    private class Chain {
+        final CompletableFuture<String> end = new CompletableFuture<>();
+        final List<Integer> path = new ArrayList<>();
+        String key;
+
+        Chain(String key) {
+            this.key = key;
+        }
+
+        // whether the chain is complete with the post of its key from the near-cache
+        boolean cached() {
+            if (nearCache == null) {
+                return false;
+            }
+            int message = Integer.parseInt(key.substring(2));
+            Integer post = nearCache.get(message);
+            if (post != null) {
+                cache(path, post);
+                end.complete("p_" + post);
+                return true;
+            }
+            path.add(message);
+            return false;
+        }
+
+        // moves on to the parent of the key, whether the chain is complete
+        boolean advance(String parent) {
+            if (parent == null) {
+                end.complete(key);
+                return true;
+            }
+            if (parent.startsWith("p_")) {
+                if (nearCache != null) {
+                    cache(path, postOf(parent));
+                }
+                end.complete(parent);
+                return true;
+            }
+            key = parent;
+            return cached();
+        }
+    }
+
+    // all comments and replies on the path of a chain belong to the post at its end
+    private void cache(List<Integer> path, int post) {
+        for (int message : path) {
+            nearCache.put(message, post);
+        }
+    }
+
+    private CompletableFuture<Void> set(String key, String value) {
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        OperationFuture<Boolean> set = mc.set(key, 0, value);
+        set.addListener(future -> {
+            if (future.getStatus().isSuccess()) {
+                stored.complete(null);
+            } else {
+                stored.completeExceptionally(new IllegalStateException(String.format("set request %s -> %s failed: %s",
+                        key, value, future.getStatus().getMessage())));
+            }
+        });
+        return stored;
+    }
+
+    private static Integer postOf(String key) {
+        return key.startsWith("p_") ? Integer.valueOf(key.substring(2)) : null;
+    }
+}
@@ -0,0 +1,78 @@
+package socialnetwork.task.postidresolution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A union-find forest of comments and replies, rooted at their posts, kept in-process: every comment or reply
+ * points to its parent, and a lookup points all comments and replies it passes straight to the root it finds
+ * (path compression), so that following a chain is amortized constant time.
+ *
+ * A parent is stored as a long, the id of a comment or reply, or ~id of a post.
+ */
+abstract class ParentPointerMappingStore implements MappingStore {
+
+    /**
+     * The parent of the comment or reply, or null if it is not stored.
+     */
+    abstract Long getParent(int message) throws Exception;
+
+    abstract void setParent(int message, long parent) throws Exception;
+
+    @Override
+    public CompletableFuture<Void> putComment(int comment, int post) {
+        try {
+            setParent(comment, ~(long) post);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> putReply(int reply, int parent) {
+        try {
+            long root = find(parent);
+            setParent(reply, root);
+            return CompletableFuture.completedFuture(postOf(root));
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> resolve(int message) {
+        try {
+            return CompletableFuture.completedFuture(postOf(find(message)));
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    // the post, or the first comment or reply that is not stored, at the end of the chain from the message
+    private long find(int message) throws Exception {
+        List<Integer> path = new ArrayList<>();
+        long node = message;
+        Long parent;
+        while (node >= 0 && (parent = getParent((int) node)) != null) {
+            path.add((int) node);
+            node = parent;
+        }
+        // the last one on the path already points to the root
+        for (int i = 0; i < path.size() - 1; i++) {
+            setParent(path.get(i), node);
+        }
+        return node;
+    }
+
+    private static Integer postOf(long root) {
+        return root < 0 ? (int) ~root : null;
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
@@ -1,13 +1,36 @@
 package socialnetwork.task.postidresolution;
 
-import net.spy.memcached.MemcachedClient;
 import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.api.common.state.ListState;
+import org.apache.flink.api.common.state.ListStateDescriptor;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
 import org.apache.flink.configuration.Configuration;
 import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.runtime.state.VoidNamespace;
+import org.apache.flink.streaming.api.TimeDomain;
+import org.apache.flink.streaming.api.datastream.AsyncDataStream;
 import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.datastream.DataStreamUtils;
+import org.apache.flink.streaming.api.datastream.IterativeStream.ConnectedIterativeStreams;
+import org.apache.flink.streaming.api.datastream.KeyedStream;
 import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
-import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.streaming.api.functions.async.ResultFuture;
+import org.apache.flink.streaming.api.functions.async.RichAsyncFunction;
+import org.apache.flink.streaming.api.functions.co.CoProcessFunction;
+import org.apache.flink.streaming.api.operators.AbstractStreamOperator;
+import org.apache.flink.streaming.api.operators.ChainingStrategy;
+import org.apache.flink.streaming.api.operators.InternalTimer;
+import org.apache.flink.streaming.api.operators.OneInputStreamOperator;
+import org.apache.flink.streaming.api.operators.TimestampedCollector;
+import org.apache.flink.streaming.api.operators.co.KeyedCoProcessOperator;
+import org.apache.flink.streaming.api.watermark.Watermark;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+import org.apache.flink.streaming.runtime.tasks.ProcessingTimeCallback;
+import org.apache.flink.streaming.runtime.tasks.ProcessingTimeService;
 import org.apache.flink.util.Collector;
 import org.apache.flink.util.OutputTag;
 import org.slf4j.Logger;
@@ -16,28 +39,115 @@ import socialnetwork.task.TaskBase;
 import socialnetwork.util.Activity;
 import socialnetwork.util.Config;
 import socialnetwork.util.Helpers.GetMessageWithTimestamp;
+import socialnetwork.util.LatencyRecorder;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.net.InetSocketAddress;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 public class PostIdResolver extends TaskBase<Activity> {
     private final static Logger logger = LoggerFactory.getLogger("SocialNetwork");
+    // the replies released by the MappingResolver, on their way back to it
+    private final static OutputTag<Activity> releasedOutputTag = new OutputTag<Activity>("released"){};
 
     SingleOutputStreamOperator<Activity> resolvedStream = null;
 
     public SingleOutputStreamOperator<Activity> getResolvedStream() { return resolvedStream; }
 
+    @Override
+    public Set<Activity.Field> getRequiredFields() {
+        return EnumSet.noneOf(Activity.Field.class);
+    }
+
+    // posts and likes are only passed through to the tasks
+    @Override
+    public Set<Activity.ActivityType> getRequiredTypes() {
+        return EnumSet.of(Activity.ActivityType.Comment, Activity.ActivityType.Reply);
+    }
+
+    /**
+     * The key of an activity before its post id is resolved, see Activity.getKey, so that replies resolved before
+     * the MappingResolver stay on the subtask of their key.
+     */
+    public static Integer resolutionKey(Activity activity) {
+        return activity.isReply() ? ((Activity.Reply) activity).getId() : activity.getKey();
+    }
+
+    /**
+     * The key of an activity in the MappingResolver: a comment or resolved reply is under its own id, where the
+     * replies waiting for it are, and an unresolved reply is under the id of its parent.
+     */
+    public static Integer releaseKey(Activity activity) {
+        if (activity.isReply()) {
+            Activity.Reply reply = (Activity.Reply) activity;
+            return reply.isPostIdResolved() ? reply.getId() : reply.getParentId();
+        }
+        return activity.isCommentOrReply() ? ((Activity.Comment) activity).getId() : activity.getKey();
+    }
+
     @Override
     public void buildPipeline(StreamExecutionEnvironment env, DataStream<Activity> inputStream) {
+        MappingStore store = MappingStore.forName(Config.mappingStore);
+        logger.info("Keeping the post id mappings in {}", store.getClass().getSimpleName());
+
+        KeyedStream<Activity, Integer> main;
+        DataStream<Activity> shuffled = null;
+        ConnectedIterativeStreams<Activity, Activity> iteration;
+        if (store.isKeyed()) {
+            // the mappings are only visible under one key, so they are all written in one subtask, see
+            // KeyedStateMappingStore
+            logger.warn("The {} writes all mappings in one subtask, it does not scale with the parallelism",
+                    store.getClass().getSimpleName());
+            SingleOutputStreamOperator<Activity> written = inputStream
+                    .keyBy(activity -> 0, Types.INT)
+                    .map(new WriteMappings(store));
+            iteration = written.iterate(2 * Config.releaseTimeout).withFeedbackType(Activity.class);
+            main = written.keyBy(PostIdResolver::releaseKey, Types.INT);
+        } else if (Config.useKeyPartitioning) {
+            // The topic is already partitioned by key (see KeyPartitioner), so the mappings are written on the
+            // source subtasks, and posts, likes and resolved replies stay there without a shuffle. Comments and
+            // unresolved replies are shuffled to the key they are released under.
+            int parallelism = inputStream.getParallelism();
+            SingleOutputStreamOperator<Activity> written = writeMappings(inputStream, store)
+                    .setParallelism(parallelism);
+            iteration = written.iterate(2 * Config.releaseTimeout).withFeedbackType(Activity.class);
+            main = DataStreamUtils.reinterpretAsKeyedStream(written
+                    .filter(activity -> releaseKey(activity).equals(resolutionKey(activity)))
+                    .setParallelism(parallelism)
+                    .name("Released under their own key"), PostIdResolver::resolutionKey, Types.INT);
+            shuffled = written
+                    .filter(activity -> !releaseKey(activity).equals(resolutionKey(activity)))
+                    .setParallelism(parallelism)
+                    .name("Released under another key");
+        } else {
+            SingleOutputStreamOperator<Activity> written = writeMappings(inputStream.rebalance(), store);
+            iteration = written.iterate(2 * Config.releaseTimeout).withFeedbackType(Activity.class);
+            main = written.keyBy(PostIdResolver::releaseKey, Types.INT);
+        }
 
-        SingleOutputStreamOperator<Activity> stream = inputStream
-                .rebalance()
-                .map(new WriteMessageIdToMemcached())
-                .keyBy(Activity::getKey)
-                .process(new MappingResolver());
+        // the replies released by the MappingResolver come back to it through the feedback edge of the iteration
+        DataStream<Activity> released = iteration.getSecondInput();
+        if (shuffled != null) {
+            released = released.union(shuffled);
+        }
+        SingleOutputStreamOperator<Activity> stream = main
+                .connect(released.keyBy(PostIdResolver::releaseKey, Types.INT))
+                .transform("MappingResolver", main.getType(), new MappingResolverOperator())
+                .setParallelism(iteration.getSecondInput().getParallelism());
+        iteration.closeWith(stream
+                .getSideOutput(releasedOutputTag)
+                .transform("Keep feedback alive", stream.getType(), new KeepAlive())
+                .setParallelism(stream.getParallelism()));
 
         stream
                 .getSideOutput(Config.mappingOutputTag)
@@ -51,7 +161,7 @@ public class PostIdResolver extends TaskBase<Activity> {
                 .setParallelism(1)
                 .name("errorOutput");
 
-        stream
+        LatencyRecorder.record(stream, "resolved-stream", Activity::getSendTime, null)
                 .process(new GetMessageWithTimestamp<>())
                 .writeAsText(Config.resolvedStreamOutputFilename, FileSystem.WriteMode.OVERWRITE)
                 .setParallelism(1)
@@ -60,66 +170,205 @@ public class PostIdResolver extends TaskBase<Activity> {
         resolvedStream = stream;
     }
 
-    public static class WriteMessageIdToMemcached extends RichMapFunction<Activity, Activity> implements Serializable {
-        private MemcachedClient mc;
+    // stores the mappings of comments and replies, and resolves the replies whose parents are stored
+    private static SingleOutputStreamOperator<Activity> writeMappings(DataStream<Activity> stream, MappingStore store) {
+        if (!Config.useAsyncResolver) {
+            return stream.map(new WriteMappings(store));
+        }
+        // unordered only within the watermarks, which is all the windows of the tasks need
+        return Config.asyncResolverOrdered ?
+                AsyncDataStream.orderedWait(stream, new AsyncMappingResolver(store), Config.asyncResolverTimeout,
+                        TimeUnit.MILLISECONDS, Config.asyncResolverCapacity) :
+                AsyncDataStream.unorderedWait(stream, new AsyncMappingResolver(store), Config.asyncResolverTimeout,
+                        TimeUnit.MILLISECONDS, Config.asyncResolverCapacity);
+    }
+
+    /**
+     * Stores the mappings of comments and resolves the post ids of replies without blocking, with up to
+     * Config.asyncResolverCapacity activities in flight per subtask. With the memcached store, every hop of a
+     * reply's chain is looked up once the previous one is answered. Resolved replies get their post id, unresolved
+     * ones are passed on to MappingResolver, which waits for their parents. Posts and likes are passed on as they
+     * are.
+     *
+     * A failed store operation is retried up to Config.asyncResolverRetries times. An activity is only passed on
+     * once its mapping is stored, otherwise the later replies to it could never be resolved, so an activity that
+     * still fails or times out fails the job.
+     */
+    public static class AsyncMappingResolver extends RichAsyncFunction<Activity, Activity> {
+        private final MappingStore store;
+
+        public AsyncMappingResolver(MappingStore store) {
+            this.store = store;
+        }
 
         @Override
-        public void open(Configuration configuration) {
-            try {
-                mc = new MemcachedClient(new InetSocketAddress("localhost", 11211));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        public void open(Configuration configuration) throws Exception {
+            store.open(getRuntimeContext());
         }
 
         @Override
         public void close() {
-            mc.shutdown();
+            store.close();
         }
 
         @Override
-        public Activity map(Activity activity) throws Exception {
-            if(activity.isCommentOrReply()) {
+        public void asyncInvoke(Activity activity, ResultFuture<Activity> result) {
+            if (activity.isReply()) {
+                Activity.Reply reply = (Activity.Reply) activity;
+                withRetries(() -> store.putReply(reply.getId(), reply.getParentId()), Config.asyncResolverRetries)
+                        .whenComplete((post, e) -> {
+                            if (e != null) {
+                                result.completeExceptionally(new IOException("Resolving the post id of " + reply
+                                        + " failed", e));
+                                return;
+                            }
+                            if (post != null) {
+                                reply.setPostId(post);
+                            }
+                            result.complete(Collections.singleton(reply));
+                        });
+            } else if (activity.isCommentOrReply()) {
                 Activity.Comment comment = (Activity.Comment) activity;
+                withRetries(() -> store.putComment(comment.getId(), comment.getParentId()), Config.asyncResolverRetries)
+                        .whenComplete((stored, e) -> {
+                            if (e != null) {
+                                result.completeExceptionally(new IOException("Storing the mapping of " + comment
+                                        + " failed", e));
+                                return;
+                            }
+                            result.complete(Collections.singleton(comment));
+                        });
+            } else {
+                result.complete(Collections.singleton(activity));
+            }
+        }
 
-                Integer childId = comment.getId();
-                Integer parentId = comment.getParentId();
-                String parentPrefix = activity.isReply() ? "r_" : "p_";  // is parent Comment or Post?
+        @Override
+        public void timeout(Activity activity, ResultFuture<Activity> result) {
+            result.completeExceptionally(new TimeoutException("Storing or resolving the mapping of " + activity
+                    + " timed out"));
+        }
 
-                boolean setRequest = mc.set("r_" + childId, 0, parentPrefix + parentId).get();
-                if(!setRequest) {
-                    logger.error("set request {} -> {} returned false", "r_" + childId, parentPrefix + parentId);
+        // the operation, started again up to the given number of times as long as it fails
+        private static <T> CompletableFuture<T> withRetries(Supplier<CompletableFuture<T>> operation, int retries) {
+            return operation.get()
+                    .handle((value, e) -> {
+                        if (e == null) {
+                            return CompletableFuture.completedFuture(value);
+                        }
+                        if (retries == 0) {
+                            CompletableFuture<T> failed = new CompletableFuture<>();
+                            failed.completeExceptionally(e);
+                            return failed;
+                        }
+                        logger.warn("Mapping store operation failed, retrying", e);
+                        return withRetries(operation, retries - 1);
+                    })
+                    .thenCompose(future -> future);
+        }
+    }
+
+    /**
+     * Like AsyncMappingResolver, waiting for the store on every activity.
+     */
+    public static class WriteMappings extends RichMapFunction<Activity, Activity> implements Serializable {
+        private final MappingStore store;
+
+        public WriteMappings(MappingStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void open(Configuration configuration) throws Exception {
+            store.open(getRuntimeContext());
+        }
+
+        @Override
+        public void close() {
+            store.close();
+        }
+
+        @Override
+        public Activity map(Activity activity) throws Exception {
+            if (activity.isReply()) {
+                Activity.Reply reply = (Activity.Reply) activity;
+                CompletableFuture<Integer> resolved = store.putReply(reply.getId(), reply.getParentId());
+                store.flush();
+                Integer post = resolved.get();
+                if (post != null) {
+                    reply.setPostId(post);
                 }
+            } else if (activity.isCommentOrReply()) {
+                Activity.Comment comment = (Activity.Comment) activity;
+                store.putComment(comment.getId(), comment.getParentId()).get();
             }
             return activity;
         }
     }
 
-
-    public static class MappingResolver extends KeyedProcessFunction<Integer, Activity, Activity> implements Serializable {
-        private MemcachedClient mc;
-        private Map<Integer, Activity.Reply> map;
+    /**
+     * Passes on the activities, and holds back the replies whose post id is unresolved until their parents are
+     * resolved. The activities are keyed by releaseKey: a comment or resolved reply is passed on under its own id
+     * and releases the replies waiting there, an unresolved reply waits under the id of its parent, unless the
+     * parent has been resolved since the reply was looked up. Released replies are passed on right away, with
+     * their own timestamps, and go through the feedback edge of the iteration to their own id, the second input,
+     * to release the replies waiting for them in turn.
+     *
+     * A release can still be on its way through the feedback edge when the watermark reaches a waiting reply, so
+     * the output watermark is held back before such a reply (see MappingResolverOperator) until it is released,
+     * or reported as unresolvable Config.releaseTimeout later.
+     */
+    public static class MappingResolver extends CoProcessFunction<Activity, Activity, Activity> implements Serializable {
+        private transient ListState<Activity> waiting;
+        private transient ValueState<Integer> post;
+        private transient ValueState<Long> forgetPost;
+        // the parents with waiting replies the watermark has reached, by the creation timestamps of the replies
+        private transient TreeMap<Long, Set<Integer>> held;
         private final OutputTag<String> errorTag = Config.errorOutputTag;
 
         @Override
         public void open(Configuration configuration) {
-            try {
-                mc = new MemcachedClient(new InetSocketAddress("localhost", 11211));
-                map = new HashMap<>();
-            } catch (IOException e) {
-                System.out.println(e);
-            }
+            waiting = getRuntimeContext().getListState(new ListStateDescriptor<>("waiting-for-parent",
+                    TypeInformation.of(Activity.class)));
+            // the post id of the comment or reply of the key, once it is resolved
+            post = getRuntimeContext().getState(new ValueStateDescriptor<>("post", Types.INT));
+            // the processing time to forget it at, see onTimer
+            forgetPost = getRuntimeContext().getState(new ValueStateDescriptor<>("forget-post", Types.LONG));
+            held = new TreeMap<>();
+        }
+
+        /**
+         * The highest watermark that keeps the held back replies on time, Long.MAX_VALUE if none are.
+         */
+        long heldWatermark() {
+            return held.isEmpty() ? Long.MAX_VALUE : held.firstKey() - 1;
         }
 
         @Override
-        public void close() {
-            mc.shutdown();
+        public void processElement1(Activity activity,
+                                    Context context,
+                                    Collector<Activity> collector) throws Exception {
+            process(activity, context, collector);
         }
 
         @Override
-        public void processElement(Activity activity,
-                                   Context context,
-                                   Collector<Activity> collector) throws Exception {
+        public void processElement2(Activity activity,
+                                    Context context,
+                                    Collector<Activity> collector) throws Exception {
+            if (activity.getType() == Activity.ActivityType.Tombstone) {
+                return;  // from KeepAlive
+            }
+            if (activity.isReply() && ((Activity.Reply) activity).isPostIdResolved()) {
+                // released and passed on already, resolved replies never take the shuffle of the main input
+                Activity.Reply reply = (Activity.Reply) activity;
+                resolved(reply, reply.getPostId(), context);
+                release(reply.getId(), reply.getPostId(), context, collector);
+                return;
+            }
+            process(activity, context, collector);
+        }
+
+        private void process(Activity activity, Context context, Collector<Activity> collector) throws Exception {
             switch (activity.getType()) {
                 case Tombstone:
                     logger.error("TOMBSTONE received at task {}", getRuntimeContext().getIndexOfThisSubtask());
@@ -132,49 +381,30 @@ public class PostIdResolver extends TaskBase<Activity> {
 
                 case Comment: {
                     Activity.Comment comment = (Activity.Comment) activity;
-                    String postId = "p_" + comment.getParentId();
-                    String childId = "r_" + comment.getId();
-
-                    boolean setRequest = mc.set(childId, 0, postId).get();
-                    if (!setRequest) {
-                        logger.error("set request {} -> {} returned false", childId, postId);
-                    }
-
-                    collector.collect(activity);
-                    context.output(Config.mappingOutputTag, childId + " -> " + postId);
+                    collector.collect(comment);
+                    context.output(Config.mappingOutputTag, "r_" + comment.getId() + " -> p_" + comment.getParentId());
+                    resolved(comment, comment.getParentId(), context);
+                    release(comment.getId(), comment.getParentId(), context, collector);
                     return;
                 }
 
                 case Reply: {
-                    // Initially, I should try to resolve the mapping
                     Activity.Reply reply = (Activity.Reply) activity;
-                    String currentKey = "r_" + reply.getParentId();
-                    String prevKey;
-
-                    do {
-                        prevKey = currentKey;
-                        currentKey = (String) mc.get(currentKey);
-                    } while(currentKey != null && !currentKey.startsWith("p_"));
-
-                    if(currentKey == null) { // mapping unresolved
-                        // Save any progress I have made into the k/v store
-                        String childId = "r_" + reply.getId();
-                        boolean setRequest = mc.set(childId, 0, prevKey).get();
-                        if(!setRequest) {
-                            logger.error("set request {} -> {} returned false", childId, prevKey);
-                        }
-
-                        // then register a timer for my timestamp in the future
-                        map.put(context.getCurrentKey(), reply);
-                        context.timerService().registerEventTimeTimer(reply.getCreationTimestamp());
+                    if (reply.isPostIdResolved()) {
+                        collector.collect(reply);
+                        context.output(Config.mappingOutputTag, "r_" + reply.getId() + " -> p_" + reply.getPostId());
+                        resolved(reply, reply.getPostId(), context);
+                        release(reply.getId(), reply.getPostId(), context, collector);
+                        return;
                     }
-                    else if(currentKey.startsWith("p_")) { // solved the mapping
-                        resolve(context, reply, currentKey);
-                        collector.collect(activity);
+                    // under the id of its parent, which may have been resolved since the reply was looked up
+                    Integer parentPost = post.value();
+                    if (parentPost != null) {
+                        passOnReleased(reply, parentPost, context, collector);
                     } else {
-                        logger.error("Got to end of case Reply trying to resolve post id mappings: reply=[{}], currentKey={}", reply.toString(), currentKey);
+                        waiting.add(reply);
+                        context.timerService().registerEventTimeTimer(reply.getCreationTimestamp());
                     }
-
                     return;
                 }
 
@@ -183,46 +413,190 @@ public class PostIdResolver extends TaskBase<Activity> {
             }
         }
 
+        // remembers the post id of the comment or reply of the key, for the replies that were looked up before
+        // it was stored, which can still arrive until the watermark is the out-of-orderness bound past it, see onTimer
+        private void resolved(Activity.Comment message, int postId, Context context) throws Exception {
+            post.update(postId);
+            context.timerService().registerEventTimeTimer(message.getCreationTimestamp() +
+                    Config.outOfOrdernessBound.toMilliseconds());
+        }
+
+        // passes on the replies waiting for the message of the key
+        private void release(int message, int postId, Context context, Collector<Activity> collector) throws Exception {
+            for (Activity child : waiting.get()) {
+                long timestamp = child.getCreationTimestamp();
+                context.timerService().deleteEventTimeTimer(timestamp);
+                unhold(timestamp, message);
+                passOnReleased((Activity.Reply) child, postId, context, collector);
+            }
+            waiting.clear();
+        }
+
+        // passes on the reply with its own timestamp, and sends it to its own id to release the replies waiting there
+        private void passOnReleased(Activity.Reply reply, int postId, Context context,
+                                    Collector<Activity> collector) {
+            reply.setPostId(postId);
+            ((TimestampedCollector<Activity>) collector).setAbsoluteTimestamp(reply.getCreationTimestamp());
+            collector.collect(reply);
+            context.output(Config.mappingOutputTag, "r_" + reply.getId() + " -> p_" + postId);
+            context.output(releasedOutputTag, reply);
+        }
+
+        private void unhold(long timestamp, int parent) {
+            Set<Integer> parents = held.get(timestamp);
+            if (parents != null && parents.remove(parent) && parents.isEmpty()) {
+                held.remove(timestamp);
+            }
+        }
+
         @Override
         public void onTimer(long timestamp,
                             OnTimerContext context,
                             Collector<Activity> collector) throws Exception {
-            // Try to resolve the mapping. This should always succeed,
-            // except when the comment/reply id is part of the blacklisted ids.
-            Activity.Reply reply = map.get(context.getCurrentKey());
+            if (context.timeDomain() == TimeDomain.EVENT_TIME) {
+                if (post.value() != null) {
+                    // The timers of the released replies are deleted, so this is the one to forget the post id.
+                    // The source subtasks do not advance in step, a reply looked up on one that is ahead can still
+                    // be on its way, so the post id is kept as long as a release may take.
+                    long forgetAt = context.timerService().currentProcessingTime() + Config.releaseTimeout;
+                    forgetPost.update(forgetAt);
+                    context.timerService().registerProcessingTimeTimer(forgetAt);
+                    return;
+                }
+                // The watermark has reached the replies created at the timestamp, so their parents should have
+                // arrived. Their release can still be on its way through the feedback edge, though.
+                for (Activity child : waiting.get()) {
+                    if (child.getCreationTimestamp() == timestamp) {
+                        int parent = ((Activity.Reply) child).getParentId();
+                        held.computeIfAbsent(timestamp, t -> new HashSet<>()).add(parent);
+                        context.timerService().registerProcessingTimeTimer(
+                                context.timerService().currentProcessingTime() + Config.releaseTimeout);
+                        return;
+                    }
+                }
+                return;
+            }
 
-//            String currentKey = "r_" + reply.getParentId();
-            String currentKey = "r_" + reply.getId();
-            do {
-                currentKey = (String) mc.get(currentKey);
-            } while(currentKey != null && !currentKey.startsWith("p_"));
+            Long forgetAt = forgetPost.value();
+            if (forgetAt != null && forgetAt == timestamp) {
+                post.clear();
+                forgetPost.clear();
+                return;
+            }
 
-            if(currentKey == null) { // mapping unresolved
+            // The replies behind the watermark still wait, which should never be the case, except when the
+            // comment/reply id is part of the blacklisted ids.
+            long watermark = context.timerService().currentWatermark();
+            List<Activity> stillWaiting = new ArrayList<>();
+            for (Activity child : waiting.get()) {
+                if (child.getCreationTimestamp() > watermark) {
+                    stillWaiting.add(child);
+                    continue;
+                }
+                unhold(child.getCreationTimestamp(), ((Activity.Reply) child).getParentId());
                 // TODO: Handle the case that the mapping is not resolved because of the blacklist
                 logger.error("Mapping could not be resolved. This should never be the case for test data.");
                 context.output(errorTag, "Mapping could not be resolved." +
                         " This should never be the case for test data.\n\t Reply: " +
-                        reply.toString());
-            }
-            else if(currentKey.startsWith("p_")) { // solved the mapping
-                resolve(context, reply, currentKey);
-                collector.collect(reply);
-            }
-            else {
-                logger.error("Got to end of onTimer trying to resolve post id mappings: reply=[{}], currentKey={}", reply.toString(), currentKey);
+                        child.toString());
             }
+            waiting.update(stillWaiting);
+        }
+    }
+
+    /**
+     * Runs the MappingResolver, and holds back its output watermark while the watermark has reached replies that
+     * still wait, see MappingResolver.heldWatermark. The holds are not checkpointed, after a restore the replies
+     * waiting then are reported or released without one.
+     */
+    static class MappingResolverOperator extends KeyedCoProcessOperator<Integer, Activity, Activity, Activity> {
+        private long inputWatermark = Long.MIN_VALUE;
+        private long outputWatermark = Long.MIN_VALUE;
+
+        MappingResolverOperator() {
+            super(new MappingResolver());
         }
 
-        private void resolve(Context context, Activity.Reply reply, String post) throws Exception {
-            String childId = "r_" + reply.getId();
-            boolean setRequest = mc.set(childId, 0, post).get();
-            if(!setRequest) {
-                logger.error("set request {} -> {} returned false", childId, post);
+        @Override
+        public void processElement1(StreamRecord<Activity> element) throws Exception {
+            super.processElement1(element);
+            emitWatermark();
+        }
+
+        @Override
+        public void processElement2(StreamRecord<Activity> element) throws Exception {
+            super.processElement2(element);
+            emitWatermark();
+        }
+
+        @Override
+        public void onProcessingTime(InternalTimer<Integer, VoidNamespace> timer) throws Exception {
+            super.onProcessingTime(timer);
+            emitWatermark();
+        }
+
+        @Override
+        public void processWatermark(Watermark mark) throws Exception {
+            // fires the event-time timers, which can hold back replies
+            timeServiceManager.advanceWatermark(mark);
+            inputWatermark = mark.getTimestamp();
+            emitWatermark();
+        }
+
+        private void emitWatermark() {
+            long watermark = Math.min(inputWatermark, ((MappingResolver) userFunction).heldWatermark());
+            if (watermark > outputWatermark) {
+                outputWatermark = watermark;
+                output.emitWatermark(new Watermark(watermark));
             }
-            reply.setPostId(Integer.valueOf(post.substring(2)));
-            context.output(Config.mappingOutputTag, childId + " -> " + post);
         }
     }
 
+    /**
+     * Passes the released replies on to the feedback edge, with a tombstone every Config.releaseTimeout in
+     * between, as the iteration head finishes once it got nothing for 2 * Config.releaseTimeout. The tombstones
+     * stop at the final watermark, so that a job on bounded input finishes after the last releases.
+     */
+    static class KeepAlive extends AbstractStreamOperator<Activity>
+            implements OneInputStreamOperator<Activity, Activity>, ProcessingTimeCallback {
+        private transient StreamRecord<Activity> tombstone;
+        private transient boolean ended;
+
+        KeepAlive() {
+            setChainingStrategy(ChainingStrategy.ALWAYS);
+        }
 
+        @Override
+        public void open() throws Exception {
+            super.open();
+            tombstone = new StreamRecord<>(new Activity.Tombstone(getRuntimeContext().getIndexOfThisSubtask(),
+                    "9999-12-31T23:59:59Z"));
+            ProcessingTimeService timeService = getProcessingTimeService();
+            timeService.registerTimer(timeService.getCurrentProcessingTime() + Config.releaseTimeout, this);
+        }
+
+        @Override
+        public void processElement(StreamRecord<Activity> element) {
+            output.collect(element);
+        }
+
+        @Override
+        public void processWatermark(Watermark mark) throws Exception {
+            if (mark.getTimestamp() == Long.MAX_VALUE && !ended) {
+                // the MappingResolver reports the replies still waiting Config.releaseTimeout from now
+                ended = true;
+                output.collect(tombstone);
+            }
+            super.processWatermark(mark);
+        }
+
+        @Override
+        public void onProcessingTime(long timestamp) {
+            if (ended) {
+                return;
+            }
+            output.collect(tombstone);
+            getProcessingTimeService().registerTimer(timestamp + Config.releaseTimeout, this);
+        }
+    }
 }
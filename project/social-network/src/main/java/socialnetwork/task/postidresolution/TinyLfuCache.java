@@ -0,0 +1,150 @@
+package socialnetwork.task.postidresolution;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the post ids of comments and replies with W-TinyLFU admission and eviction: new entries go
+ * into a small LRU window, and an entry falling out of the window only replaces the eviction victim of the main
+ * cache if it was asked for more often recently. The frequencies are estimated by a count-min sketch of counters
+ * capped at 15 that are halved every 10 * capacity lookups, so old popularity fades. The main cache is a segmented
+ * LRU, entries asked for again move from its probation to its protected segment.
+ *
+ * A post id never changes once resolved, so entries are never invalidated. All methods are synchronized, the
+ * cache is used from the task thread and the memcached callbacks.
+ */
+class TinyLfuCache {
+    private static final int SKETCH_DEPTH = 4;
+    private static final int[] SKETCH_SEEDS = {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+    private final Map<Integer, Integer> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Integer> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Integer> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final byte[][] sketch;
+    private final int sketchShift;
+    private final int sampleSize;
+    private int samples;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity max entries, 1% of them in the window and 80% of the rest in the protected segment
+     */
+    TinyLfuCache(int capacity) {
+        windowCapacity = Math.max(1, capacity / 100);
+        mainCapacity = Math.max(1, capacity - windowCapacity);
+        protectedCapacity = mainCapacity * 4 / 5;
+        int width = Integer.highestOneBit(Math.max(16, capacity - 1) * 2);
+        sketch = new byte[SKETCH_DEPTH][width];
+        sketchShift = Integer.numberOfLeadingZeros(width - 1);
+        sampleSize = 10 * capacity;
+    }
+
+    /**
+     * The cached post id of the comment or reply, or null. Counts towards its frequency either way.
+     */
+    synchronized Integer get(int message) {
+        increment(message);
+        Integer post = window.get(message);
+        if (post == null) {
+            post = protectedSegment.get(message);
+        }
+        if (post == null) {
+            post = probation.remove(message);
+            if (post != null) {
+                protectedSegment.put(message, post);
+                if (protectedSegment.size() > protectedCapacity) {
+                    // demote the least recently used protected entry, it gets another chance in probation
+                    Map.Entry<Integer, Integer> demoted = removeEldest(protectedSegment);
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+            }
+        }
+        if (post == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return post;
+    }
+
+    synchronized void put(int message, int post) {
+        if (window.containsKey(message) || probation.containsKey(message) || protectedSegment.containsKey(message)) {
+            return;
+        }
+        window.put(message, post);
+        if (window.size() <= windowCapacity) {
+            return;
+        }
+        Map.Entry<Integer, Integer> candidate = removeEldest(window);
+        if (probation.size() + protectedSegment.size() < mainCapacity) {
+            probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        Map<Integer, Integer> victims = probation.isEmpty() ? protectedSegment : probation;
+        Integer victim = victims.keySet().iterator().next();
+        if (frequency(candidate.getKey()) > frequency(victim)) {
+            victims.remove(victim);
+            probation.put(candidate.getKey(), candidate.getValue());
+        }
+        evictions++;
+    }
+
+    synchronized int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    private static Map.Entry<Integer, Integer> removeEldest(Map<Integer, Integer> segment) {
+        Iterator<Map.Entry<Integer, Integer>> eldest = segment.entrySet().iterator();
+        Map.Entry<Integer, Integer> entry = eldest.next();
+        Map.Entry<Integer, Integer> removed = new AbstractMap.SimpleImmutableEntry<>(entry);
+        eldest.remove();
+        return removed;
+    }
+
+    private int frequency(int message) {
+        int frequency = Byte.MAX_VALUE;
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            frequency = Math.min(frequency, sketch[i][indexOf(message, i)]);
+        }
+        return frequency;
+    }
+
+    private void increment(int message) {
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int index = indexOf(message, i);
+            if (sketch[i][index] < 15) {
+                sketch[i][index]++;
+            }
+        }
+        if (++samples >= sampleSize) {
+            // age the counts, so that entries that were popular a while ago can be evicted
+            for (byte[] row : sketch) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] >>= 1;
+                }
+            }
+            samples /= 2;
+        }
+    }
+
+    private int indexOf(int message, int row) {
+        return (message * SKETCH_SEEDS[row] + row) >>> sketchShift;
+    }
+}
@@ -0,0 +1,69 @@
+package socialnetwork.task.postidresolution;
+
+import org.apache.flink.api.common.functions.RuntimeContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the mappings in a union-find forest shared by the subtasks of a task in the same JVM, so a lookup never
+ * leaves the process. This is for the local environment and for benchmarking the resolver without the network
+ * hop: on a cluster, the subtasks of different task managers would not see each other's mappings.
+ *
+ * The forest is created when the first subtask opens the store and dropped when the last one closes it, so the
+ * mappings of a job do not leak into the next job run in the same JVM.
+ */
+public class UnionFindMappingStore extends ParentPointerMappingStore {
+    // the forests of the tasks that have the store open, by task name
+    private static final Map<String, Forest> forests = new HashMap<>();
+
+    private transient String task;
+    private transient Map<Integer, Long> parents;
+
+    private static class Forest {
+        final Map<Integer, Long> parents = new ConcurrentHashMap<>();
+        int openSubtasks;
+    }
+
+    @Override
+    public void open(RuntimeContext context) {
+        task = context.getTaskName();
+        synchronized (forests) {
+            Forest forest = forests.computeIfAbsent(task, name -> new Forest());
+            forest.openSubtasks++;
+            parents = forest.parents;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (task == null) {
+            return;
+        }
+        synchronized (forests) {
+            Forest forest = forests.get(task);
+            if (forest != null && --forest.openSubtasks == 0) {
+                forests.remove(task);
+            }
+        }
+        task = null;
+        parents = null;
+    }
+
+    @Override
+    public boolean isKeyed() {
+        return false;
+    }
+
+    @Override
+    Long getParent(int message) {
+        return parents.get(message);
+    }
+
+    // concurrent path compression only ever points to an ancestor, so a lost update only leaves a longer path
+    @Override
+    void setParent(int message, long parent) {
+        parents.put(message, parent);
+    }
+}
@@ -21,6 +21,7 @@ package socialnetwork.task.recommendation;
 import org.apache.flink.api.common.functions.AggregateFunction;
 import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.api.java.tuple.Tuple4;
 import org.apache.flink.core.fs.FileSystem;
 import org.apache.flink.streaming.api.datastream.DataStream;
 import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
@@ -38,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import socialnetwork.task.TaskBase;
 import socialnetwork.util.Activity;
 import socialnetwork.util.Config;
+import socialnetwork.util.LatencyRecorder;
 
 import java.io.*;
 import java.time.Instant;
@@ -50,6 +52,11 @@ public class FriendRecommender extends TaskBase<Activity> {
     private final Integer[] eigenUserIds = Config.eigenUserIds;
     private final OutputTag<Activity> lateTag = new OutputTag<Activity>("Task2Late") {};
 
+    @Override
+    public Set<Activity.Field> getRequiredFields() {
+        return EnumSet.noneOf(Activity.Field.class);
+    }
+
     public void buildPipeline(StreamExecutionEnvironment env, DataStream<Activity> inputStream) {
         final List<Set<Integer>> alreadyKnows = getExistingFriendships(eigenUserIds);
         logger.info("Loaded existing friendships");
@@ -64,7 +71,7 @@ public class FriendRecommender extends TaskBase<Activity> {
             .allowedLateness(Config.outOfOrdernessBound)
             .sideOutputLateData(lateTag);
 
-        SingleOutputStreamOperator<Tuple2<Integer, Map<Integer, Integer>>> similaritiesPerPost = windowedStream
+        SingleOutputStreamOperator<Tuple3<Integer, Map<Integer, Integer>, Long>> similaritiesPerPost = windowedStream
             .aggregate(new CountActivitiesPerUser(), new GetUserSimilarities(alreadyKnows));
         // similaritiesPerPost.print().setParallelism(1);
 
@@ -75,13 +82,16 @@ public class FriendRecommender extends TaskBase<Activity> {
                 .name("task2-late");
 
         // Use another window to sum up the per-post similarities
-        DataStream<Tuple3<Long, Integer, List<Integer>>> recommendations = similaritiesPerPost
+        DataStream<Tuple4<Long, Integer, List<Integer>, Long>> recommendations = similaritiesPerPost
                 .keyBy(tuple -> tuple.f0)
                 .timeWindow(Time.hours(1))
                 .aggregate(new SimilarityAggregate(), new GetTopFiveRecommendations(staticSimilarities, Config.staticWeight));
 
 //        recommendations.print().setParallelism(1);
-        recommendations
+        // the send time is only carried for LatencyRecorder, the output keeps its format
+        LatencyRecorder.record(recommendations, "recommendations", r -> r.f3, r -> r.f0)
+                .project(0, 1, 2)
+                .setParallelism(1)
                 .writeAsText("log/recommendations.txt", FileSystem.WriteMode.OVERWRITE)
                 .setParallelism(1)
                 .name("recommendations");
@@ -105,14 +115,14 @@ public class FriendRecommender extends TaskBase<Activity> {
         input.print().setParallelism(1);
 
         // get per-post similarities with a keyed sliding window
-        DataStream<Tuple2<Integer, Map<Integer, Integer>>> similaritiesPerPost = input
+        DataStream<Tuple3<Integer, Map<Integer, Integer>, Long>> similaritiesPerPost = input
                 .keyBy(Activity::getPostId)
                 .window(SlidingEventTimeWindows.of(Time.hours(4), Time.hours(1)))
                 .aggregate(new CountActivitiesPerUser(), new GetUserSimilarities(alreadyKnows));
         similaritiesPerPost.print().setParallelism(1);
 
         // Use another window to sum up the per-post similarities
-        DataStream<Tuple3<Long, Integer, List<Integer>>> recommendations = similaritiesPerPost
+        DataStream<Tuple4<Long, Integer, List<Integer>, Long>> recommendations = similaritiesPerPost
                 .keyBy(tuple -> tuple.f0)
                 .timeWindow(Time.hours(1))
                 .aggregate(new SimilarityAggregate(), new GetTopFiveRecommendations(staticSimilarities, Config.staticWeight));
@@ -209,36 +219,39 @@ public class FriendRecommender extends TaskBase<Activity> {
         return similarities;
     }
 
+    // counts per user, with the send time of the newest activity for LatencyRecorder
     private static class CountActivitiesPerUser
-            implements AggregateFunction<Activity, Map<Integer, Integer>, Map<Integer, Integer>> {
+            implements AggregateFunction<Activity, Tuple2<Map<Integer, Integer>, Long>, Tuple2<Map<Integer, Integer>, Long>> {
 
         @Override
-        public Map<Integer, Integer> createAccumulator() {
-            return new HashMap<>();  // userId -> count
+        public Tuple2<Map<Integer, Integer>, Long> createAccumulator() {
+            return Tuple2.of(new HashMap<>(), 0L);  // userId -> count
         }
 
         @Override
-        public Map<Integer, Integer> add(Activity value, Map<Integer, Integer> accumulator) {
-            accumulator.merge(value.getPersonId(), 1, Integer::sum);
+        public Tuple2<Map<Integer, Integer>, Long> add(Activity value, Tuple2<Map<Integer, Integer>, Long> accumulator) {
+            accumulator.f0.merge(value.getPersonId(), 1, Integer::sum);
+            accumulator.f1 = Math.max(accumulator.f1, value.getSendTime());
             return accumulator;
         }
 
         @Override
-        public Map<Integer, Integer> getResult(Map<Integer, Integer> accumulator) {
+        public Tuple2<Map<Integer, Integer>, Long> getResult(Tuple2<Map<Integer, Integer>, Long> accumulator) {
             return accumulator;
         }
 
         @Override
-        public Map<Integer, Integer> merge(Map<Integer, Integer> r1, Map<Integer, Integer> r2) {
-            for (Map.Entry<Integer, Integer> elem : r1.entrySet()) {
-                r2.merge(elem.getKey(), elem.getValue(), Integer::sum);
+        public Tuple2<Map<Integer, Integer>, Long> merge(Tuple2<Map<Integer, Integer>, Long> r1, Tuple2<Map<Integer, Integer>, Long> r2) {
+            for (Map.Entry<Integer, Integer> elem : r1.f0.entrySet()) {
+                r2.f0.merge(elem.getKey(), elem.getValue(), Integer::sum);
             }
+            r2.f1 = Math.max(r1.f1, r2.f1);
             return r2;
         }
     }
 
     public static class GetUserSimilarities
-            extends ProcessWindowFunction<Map<Integer, Integer>, Tuple2<Integer, Map<Integer, Integer>>, Integer, TimeWindow> {
+            extends ProcessWindowFunction<Tuple2<Map<Integer, Integer>, Long>, Tuple3<Integer, Map<Integer, Integer>, Long>, Integer, TimeWindow> {
 
         private Integer[] eigenUserIds;
         private List<Set<Integer>> alreadyKnows;
@@ -257,7 +270,7 @@ public class FriendRecommender extends TaskBase<Activity> {
         }
 
         @Override
-        public void process(Integer postId, Context context, Iterable<Map<Integer, Integer>> input, Collector<Tuple2<Integer, Map<Integer, Integer>>> out) {
+        public void process(Integer postId, Context context, Iterable<Tuple2<Map<Integer, Integer>, Long>> input, Collector<Tuple3<Integer, Map<Integer, Integer>, Long>> out) {
             // init similarity matrix
             List<HashMap<Integer, Integer>> similarities = new ArrayList<>();  // similarities[eigenUsers][allUsers] -> similarity
             for (int i = 0; i < eigenUserIds.length; ++i) {
@@ -265,7 +278,8 @@ public class FriendRecommender extends TaskBase<Activity> {
             }
 
             // count activities for every user
-            Map<Integer, Integer> counts = input.iterator().next();  // userId -> count
+            Tuple2<Map<Integer, Integer>, Long> countsWithSendTime = input.iterator().next();
+            Map<Integer, Integer> counts = countsWithSendTime.f0;  // userId -> count
 
             // calculate similarity
             for (int i = 0; i < eigenUserIds.length; ++i) {
@@ -284,45 +298,47 @@ public class FriendRecommender extends TaskBase<Activity> {
 //            logger.debug("PostId: " + postId + ", Window: " + prettify(context.window()) + ", similarities: " + similarities);
             int eigenUserIndex = 0;
             for(Map<Integer, Integer> eigenUserMap : similarities) {
-                out.collect(Tuple2.of(eigenUserIndex++, eigenUserMap));
+                out.collect(Tuple3.of(eigenUserIndex++, eigenUserMap, countsWithSendTime.f1));
             }
         }
     }
 
     private static class SimilarityAggregate
-            implements AggregateFunction<Tuple2<Integer, Map<Integer, Integer>>, Tuple2<Integer, Map<Integer, Integer>>, Tuple2<Integer, Map<Integer, Integer>>> {
+            implements AggregateFunction<Tuple3<Integer, Map<Integer, Integer>, Long>, Tuple3<Integer, Map<Integer, Integer>, Long>, Tuple3<Integer, Map<Integer, Integer>, Long>> {
 
         @Override
-        public Tuple2<Integer, Map<Integer, Integer>> createAccumulator() {
-            return Tuple2.of(-1, new HashMap<>());
+        public Tuple3<Integer, Map<Integer, Integer>, Long> createAccumulator() {
+            return Tuple3.of(-1, new HashMap<>(), 0L);
         }
 
         @Override
-        public Tuple2<Integer, Map<Integer, Integer>> add(Tuple2<Integer, Map<Integer, Integer>> value, Tuple2<Integer, Map<Integer, Integer>> accumulator) {
+        public Tuple3<Integer, Map<Integer, Integer>, Long> add(Tuple3<Integer, Map<Integer, Integer>, Long> value, Tuple3<Integer, Map<Integer, Integer>, Long> accumulator) {
             accumulator.f0 = value.f0;
             for (Map.Entry<Integer, Integer> elem : value.f1.entrySet()) {
                 accumulator.f1.merge(elem.getKey(), elem.getValue(), Integer::sum);
             }
+            accumulator.f2 = Math.max(accumulator.f2, value.f2);
             return accumulator;
         }
 
         @Override
-        public Tuple2<Integer, Map<Integer, Integer>> getResult(Tuple2<Integer, Map<Integer, Integer>> accumulator) {
+        public Tuple3<Integer, Map<Integer, Integer>, Long> getResult(Tuple3<Integer, Map<Integer, Integer>, Long> accumulator) {
             return accumulator;
         }
 
         @Override
-        public Tuple2<Integer, Map<Integer, Integer>> merge(Tuple2<Integer, Map<Integer, Integer>> r1, Tuple2<Integer, Map<Integer, Integer>> r2) {
+        public Tuple3<Integer, Map<Integer, Integer>, Long> merge(Tuple3<Integer, Map<Integer, Integer>, Long> r1, Tuple3<Integer, Map<Integer, Integer>, Long> r2) {
             r2.f0 = r1.f0;
             for (Map.Entry<Integer, Integer> elem : r1.f1.entrySet()) {
                 r2.f1.merge(elem.getKey(), elem.getValue(), Integer::sum);
             }
+            r2.f2 = Math.max(r1.f2, r2.f2);
             return r2;
         }
     }
 
     private static class GetTopFiveRecommendations
-            extends ProcessWindowFunction<Tuple2<Integer, Map<Integer, Integer>>, Tuple3<Long, Integer, List<Integer>>, Integer, TimeWindow> {
+            extends ProcessWindowFunction<Tuple3<Integer, Map<Integer, Integer>, Long>, Tuple4<Long, Integer, List<Integer>, Long>, Integer, TimeWindow> {
 
         private Integer[] eigenUserIds;
         List<Map<Integer, Integer>> staticSimilarities;
@@ -356,9 +372,9 @@ public class FriendRecommender extends TaskBase<Activity> {
         @Override
         public void process(Integer key,
                             Context context,
-                            Iterable<Tuple2<Integer, Map<Integer, Integer>>> aggregations,
-                            Collector<Tuple3<Long, Integer, List<Integer>>> out) {
-            Tuple2<Integer, Map<Integer, Integer>> input = aggregations.iterator().next();
+                            Iterable<Tuple3<Integer, Map<Integer, Integer>, Long>> aggregations,
+                            Collector<Tuple4<Long, Integer, List<Integer>, Long>> out) {
+            Tuple3<Integer, Map<Integer, Integer>, Long> input = aggregations.iterator().next();
             int eigenUserIndex = input.f0;
             int eigenUserId = eigenUserIds[eigenUserIndex];
             Map<Integer, Integer> dynamicSimilarities = input.f1;
@@ -398,7 +414,7 @@ public class FriendRecommender extends TaskBase<Activity> {
                 recommendations.add(pair.userId);
 //                    logger.debug("Window: " + prettify(context.window()) + ", recommend for " + eigenUserIds[i] + ": " + pair);
             }
-            out.collect(Tuple3.of(context.window().getEnd(), eigenUserId, recommendations));
+            out.collect(Tuple4.of(context.window().getEnd(), eigenUserId, recommendations, input.f2));
         }
     }
 
@@ -1,16 +1,23 @@
 package socialnetwork.util;
 
 import org.apache.flink.api.common.serialization.AbstractDeserializationSchema;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
+import org.apache.kafka.common.serialization.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
 
+@TypeInfo(ActivityTypeInfo.Factory.class)
 public abstract class Activity {
     final static Logger logger = LoggerFactory.getLogger("SocialNetwork");
 
+    // the ordinals are used as type tags by ActivitySerializer, only append new types at the end
     public enum ActivityType {
         Post,
         Comment,
@@ -35,18 +42,103 @@ public abstract class Activity {
         return ActivityType.Tombstone;
     }
 
+    /**
+     * The wide string fields of posts and comments. Most of the pipeline never reads them, so they are decoded
+     * from the raw record only on first access, and retainFields drops the ones no task needs.
+     */
+    public enum Field {
+        ImageFile,
+        LocationIP,
+        BrowserUsed,
+        Language,
+        Content,
+        Tags
+    }
+
     // Common fields of all activities
     Integer personId;
     Integer postId = -1;
     String creationDate;
     Long creationTimestamp;
+    // wall-clock millis at which the activity left the Producer or entered the source, 0 if unknown, see LatencyRecorder
+    long sendTime;
+
+    // Raw record the wide fields are decoded from on first access, must not be modified once it is set.
+    // rawSpans holds the [start, end) offsets of each Field at 2 * ordinal, with start -1 if the field is not in raw.
+    byte[] raw;
+    int[] rawSpans;
+
+    void setRawField(Field field, byte[] raw, int from, int to) {
+        if (rawSpans == null) {
+            rawSpans = new int[2 * Field.values().length];
+            Arrays.fill(rawSpans, -1);
+        }
+        this.raw = raw;
+        rawSpans[2 * field.ordinal()] = from;
+        rawSpans[2 * field.ordinal() + 1] = to;
+    }
+
+    boolean hasRawField(Field field) {
+        return rawSpans != null && rawSpans[2 * field.ordinal()] >= 0;
+    }
+
+    String decodeRawField(Field field) {
+        if (!hasRawField(field)) {
+            return null;
+        }
+        return decodeField(field, raw, rawSpans[2 * field.ordinal()], rawSpans[2 * field.ordinal() + 1]);
+    }
+
+    // low-cardinality fields are decoded to their canonical instance in the ActivityDictionary
+    static String decodeField(Field field, byte[] bytes, int from, int to) {
+        if (ActivityDictionary.isEncoded(field)) {
+            return ActivityDictionary.shared().canonical(field, bytes, from, to);
+        }
+        return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drops all wide fields that are not in the given set, so they are neither kept in memory nor serialized
+     * any more. Dropped fields read as null and print as empty.
+     */
+    public void retainFields(Set<Field> fields) {
+        boolean anyRawField = false;
+        for (Field field : Field.values()) {
+            if (!fields.contains(field)) {
+                dropField(field);
+            } else if (hasRawField(field)) {
+                anyRawField = true;
+            }
+        }
+        if (!anyRawField) {
+            raw = null;
+            rawSpans = null;
+        }
+    }
+
+    void dropField(Field field) {
+        if (rawSpans != null) {
+            rawSpans[2 * field.ordinal()] = -1;
+        }
+    }
+
+    static String orEmpty(String s) {
+        return s == null ? "" : s;
+    }
 
     public void setCreationDate(String s) {
-        // Ref: https://docs.oracle.com/javase/8/docs/api/java/time/format/DateTimeFormatter.html#patterns
         this.creationDate = s;
-        this.creationTimestamp = LocalDateTime
-                .from(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss[.S][S][S][X][X]").parse(s))
-                .atZone(ZoneId.of("GMT+0")).toInstant().toEpochMilli();
+        this.creationTimestamp = TimestampCodec.parse(s);
+    }
+
+    void setCreationTimestamp(long timestamp) {
+        this.creationDate = TimestampCodec.formatMillis(timestamp);
+        this.creationTimestamp = timestamp;
+    }
+
+    void setCreationDate(byte[] bytes, int from, int to) {
+        this.creationDate = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        this.creationTimestamp = TimestampCodec.parse(bytes, from, to);
     }
 
     public String getCreationDate() { return creationDate; }
@@ -59,6 +151,14 @@ public abstract class Activity {
         return personId;
     }
 
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    public void setSendTime(long sendTime) {
+        this.sendTime = sendTime;
+    }
+
     public static Activity fromString(String line) {
         if (line.startsWith("L|"))
             return new Like(line);
@@ -94,9 +194,33 @@ public abstract class Activity {
     }
 
     public static class Deserializer extends AbstractDeserializationSchema<Activity> {
+        private final Set<Field> requiredFields;
+        private transient ActivityParser parser;
+
+        public Deserializer() {
+            this(EnumSet.allOf(Field.class));
+        }
+
+        /**
+         * @param requiredFields wide fields to keep, all others are dropped right after deserialization
+         */
+        public Deserializer(Set<Field> requiredFields) {
+            this.requiredFields = EnumSet.copyOf(requiredFields);
+        }
+
         @Override
-        public Activity deserialize(byte[] bytes){
-            return Activity.fromString(new String(bytes));
+        public Activity deserialize(byte[] bytes) throws IOException {
+            if (parser == null) {
+                parser = new ActivityParser(true);
+            }
+            return project(parser.parse(bytes));
+        }
+
+        protected Activity project(Activity activity) {
+            if (activity != null && requiredFields.size() < Field.values().length) {
+                activity.retainFields(requiredFields);
+            }
+            return activity;
         }
 
         @Override
@@ -109,6 +233,22 @@ public abstract class Activity {
         }
     }
 
+    /**
+     * Kafka serializer for the Producer, writing the pipe-separated text of toString().
+     */
+    public static class KafkaSerializer implements Serializer<Activity> {
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {}
+
+        @Override
+        public byte[] serialize(String topic, Activity activity) {
+            return activity == null ? null : activity.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() {}
+    }
+
     public abstract String getRawString();
 
     /**
@@ -125,6 +265,24 @@ public abstract class Activity {
         Integer forumId;
         Integer placeId;
 
+        Post() {}
+
+        public Post(Integer postId, Integer personId, long creationTimestamp, String imageFile, String locationIP,
+                    String browserUsed, String language, String content, String tags, Integer forumId,
+                    Integer placeId) {
+            this.postId = postId;
+            this.personId = personId;
+            setCreationTimestamp(creationTimestamp);
+            this.imageFile = imageFile;
+            this.locationIP = locationIP;
+            this.browserUsed = browserUsed;
+            this.language = language;
+            this.content = content;
+            this.tags = tags;
+            this.forumId = forumId;
+            this.placeId = placeId;
+        }
+
         Post(String line) {
             String[] splits = line.split("\\|");
             this.postId = Integer.valueOf(splits[1]);
@@ -141,15 +299,69 @@ public abstract class Activity {
         }
 
         public String toString() {
-            return "P|" + postId + "|" + personId + "|" + creationDate + "|" + imageFile + "|" + locationIP + "|"
-                    + browserUsed + "|" + language + "|" + content + "|" + tags + "|" + forumId + "|" + placeId;
+            return "P|" + postId + "|" + personId + "|" + creationDate + "|" + orEmpty(getImageFile()) + "|"
+                    + orEmpty(getLocationIP()) + "|" + orEmpty(getBrowserUsed()) + "|" + orEmpty(getLanguage()) + "|"
+                    + orEmpty(getContent()) + "|" + orEmpty(getTags()) + "|" + forumId + "|" + placeId;
         }
 
         public Integer getId() {
             return postId;
         }
 
-        public String getContent() { return content; }
+        public String getImageFile() {
+            if (imageFile == null) {
+                imageFile = decodeRawField(Field.ImageFile);
+            }
+            return imageFile;
+        }
+
+        public String getLocationIP() {
+            if (locationIP == null) {
+                locationIP = decodeRawField(Field.LocationIP);
+            }
+            return locationIP;
+        }
+
+        public String getBrowserUsed() {
+            if (browserUsed == null) {
+                browserUsed = decodeRawField(Field.BrowserUsed);
+            }
+            return browserUsed;
+        }
+
+        public String getLanguage() {
+            if (language == null) {
+                language = decodeRawField(Field.Language);
+            }
+            return language;
+        }
+
+        public String getContent() {
+            if (content == null) {
+                content = decodeRawField(Field.Content);
+            }
+            return content;
+        }
+
+        public String getTags() {
+            if (tags == null) {
+                tags = decodeRawField(Field.Tags);
+            }
+            return tags;
+        }
+
+        @Override
+        void dropField(Field field) {
+            super.dropField(field);
+            switch (field) {
+                case ImageFile: imageFile = null; break;
+                case LocationIP: locationIP = null; break;
+                case BrowserUsed: browserUsed = null; break;
+                case Language: language = null; break;
+                case Content: content = null; break;
+                case Tags: tags = null; break;
+            }
+        }
 
         @Override
         public String getRawString() {
@@ -169,6 +381,19 @@ public abstract class Activity {
         String content;
         Integer placeId;
 
+        Comment() {}
+
+        public Comment(Integer commentId, Integer personId, long creationTimestamp, String locationIP,
+                       String browserUsed, String content, Integer postId, Integer placeId) {
+            this.commentId = commentId;
+            this.personId = personId;
+            setCreationTimestamp(creationTimestamp);
+            this.locationIP = locationIP;
+            this.browserUsed = browserUsed;
+            this.content = content;
+            this.postId = postId;
+            this.placeId = placeId;
+        }
 
         Comment(String[] splits, Integer postId) {
             this.commentId = Integer.valueOf(splits[1]);
@@ -200,11 +425,41 @@ public abstract class Activity {
             return postId;
         }
 
-        public String getContent() { return content; }
+        public String getLocationIP() {
+            if (locationIP == null) {
+                locationIP = decodeRawField(Field.LocationIP);
+            }
+            return locationIP;
+        }
+
+        public String getBrowserUsed() {
+            if (browserUsed == null) {
+                browserUsed = decodeRawField(Field.BrowserUsed);
+            }
+            return browserUsed;
+        }
+
+        public String getContent() {
+            if (content == null) {
+                content = decodeRawField(Field.Content);
+            }
+            return content;
+        }
+
+        @Override
+        void dropField(Field field) {
+            super.dropField(field);
+            switch (field) {
+                case LocationIP: locationIP = null; break;
+                case BrowserUsed: browserUsed = null; break;
+                case Content: content = null; break;
+                default: break;
+            }
+        }
 
         public String toString() {
-             return "C|" + commentId + "|" + personId + "|" + creationDate + "|" + locationIP + "|" + browserUsed
-                     + "|" + content + "|" + postId + "||" + placeId;
+             return "C|" + commentId + "|" + personId + "|" + creationDate + "|" + orEmpty(getLocationIP()) + "|"
+                     + orEmpty(getBrowserUsed()) + "|" + orEmpty(getContent()) + "|" + postId + "||" + placeId;
         }
 
         @Override
@@ -221,6 +476,14 @@ public abstract class Activity {
     public static class Reply extends Comment {
         Integer parentId;
 
+        Reply() {}
+
+        public Reply(Integer commentId, Integer personId, long creationTimestamp, String locationIP,
+                     String browserUsed, String content, Integer parentId, Integer placeId) {
+            super(commentId, personId, creationTimestamp, locationIP, browserUsed, content, -1, placeId);
+            this.parentId = parentId;
+        }
+
         Reply(String[] splits) {
             super(splits, -1);
             this.parentId = Integer.valueOf(splits[8]);
@@ -249,9 +512,9 @@ public abstract class Activity {
         }
 
         public String toString() {
-            return "C|" + commentId + "|" + personId + "|" + creationDate + "|" + locationIP + "|" + browserUsed
-                    + "|" + content + "|" + (isPostIdResolved() ? postId : "") + "|" + parentId
-                    + "|" + placeId;
+            return "C|" + commentId + "|" + personId + "|" + creationDate + "|" + orEmpty(getLocationIP()) + "|"
+                    + orEmpty(getBrowserUsed()) + "|" + orEmpty(getContent()) + "|" + (isPostIdResolved() ? postId : "")
+                    + "|" + parentId + "|" + placeId;
         }
 
         @Override
@@ -266,6 +529,14 @@ public abstract class Activity {
      L|Person.id|Post.id|creationDate
      */
     public static class Like extends Activity {
+        Like() {}
+
+        public Like(Integer personId, Integer postId, long creationTimestamp) {
+            this.personId = personId;
+            this.postId = postId;
+            setCreationTimestamp(creationTimestamp);
+        }
+
         Like(String line) {
             String[] splits = line.split("\\|");
             this.personId = Integer.valueOf(splits[1]);
@@ -293,6 +564,8 @@ public abstract class Activity {
      T|postId|creationDate
      */
     public static class Tombstone extends Activity {
+        Tombstone() {}
+
         public Tombstone(Integer postId, String creationDate) {
             this.postId = postId;
             setCreationDate(creationDate);
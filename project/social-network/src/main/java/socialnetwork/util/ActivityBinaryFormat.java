@@ -0,0 +1,355 @@
+package socialnetwork.util;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary record format for activities on the Kafka topic, an alternative to the pipe-separated text
+ * of Activity.toString().
+ *
+ * Layout: a version byte, a type tag byte (the ActivityType ordinal), then the fields of the concrete type.
+ * Ids are zigzag varints, the creation timestamp is a zigzag varlong of epoch millis and strings are a varint
+ * of their UTF-8 length plus one (0 for null) followed by the bytes.
+ *
+ * The creation date text is not sent in full. It is rebuilt from the timestamp, and only the part after the
+ * seconds (e.g. "Z" or ".000ZZ") is sent, so that toString() gives back exactly the original record. Dates
+ * that do not start with the formatted timestamp are sent as a null suffix followed by the full text.
+ *
+ * Decoded activities keep a reference to the record and only decode their wide fields (see Activity.Field)
+ * on first access, so a record must not be modified after it has been decoded. Wide fields that were not
+ * decoded yet are encoded by copying their raw bytes.
+ *
+ * An instance keeps reusable buffers, so it must not be shared between threads.
+ */
+public class ActivityBinaryFormat {
+    public static final byte VERSION = 1;
+    private static final Activity.ActivityType[] TYPES = Activity.ActivityType.values();
+    private static final int CANONICAL_DATE_LENGTH = 19;  // yyyy-MM-ddTHH:mm:ss
+
+    // output buffer, reused across encode calls
+    private byte[] out = new byte[256];
+    private int outPosition;
+
+    // record being decoded
+    private byte[] in;
+    private int inPosition;
+    private final StringBuilder date = new StringBuilder(32);
+
+    public byte[] encode(Activity activity) {
+        outPosition = 0;
+        Activity.ActivityType type = activity.getType();
+        writeByte(VERSION);
+        writeByte(type.ordinal());
+
+        switch (type) {
+            case Post: {
+                Activity.Post post = (Activity.Post) activity;
+                writeVarInt(post.postId);
+                writeVarInt(post.personId);
+                writeCreationDate(post);
+                writeField(post, Activity.Field.ImageFile, post.imageFile);
+                writeField(post, Activity.Field.LocationIP, post.locationIP);
+                writeField(post, Activity.Field.BrowserUsed, post.browserUsed);
+                writeField(post, Activity.Field.Language, post.language);
+                writeField(post, Activity.Field.Content, post.content);
+                writeField(post, Activity.Field.Tags, post.tags);
+                writeVarInt(post.forumId);
+                writeVarInt(post.placeId);
+                break;
+            }
+            case Comment:
+            case Reply: {
+                Activity.Comment comment = (Activity.Comment) activity;
+                writeVarInt(comment.commentId);
+                writeVarInt(comment.personId);
+                writeCreationDate(comment);
+                writeField(comment, Activity.Field.LocationIP, comment.locationIP);
+                writeField(comment, Activity.Field.BrowserUsed, comment.browserUsed);
+                writeField(comment, Activity.Field.Content, comment.content);
+                writeVarInt(comment.postId);
+                writeVarInt(comment.placeId);
+                if (type == Activity.ActivityType.Reply) {
+                    writeVarInt(((Activity.Reply) comment).parentId);
+                }
+                break;
+            }
+            case Like:
+                writeVarInt(activity.personId);
+                writeVarInt(activity.postId);
+                writeCreationDate(activity);
+                break;
+            case Tombstone:
+                writeVarInt(activity.postId);
+                writeCreationDate(activity);
+                break;
+        }
+        return Arrays.copyOf(out, outPosition);
+    }
+
+    public Activity decode(byte[] bytes) throws IOException {
+        in = bytes;
+        inPosition = 0;
+        try {
+            int version = readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported activity record version " + version);
+            }
+            int tag = readByte();
+            if (tag >= TYPES.length) {
+                throw new IOException("Unknown activity type tag " + tag);
+            }
+
+            switch (TYPES[tag]) {
+                case Post: {
+                    Activity.Post post = new Activity.Post();
+                    post.postId = readVarInt();
+                    post.personId = readVarInt();
+                    readCreationDate(post);
+                    readField(post, Activity.Field.ImageFile);
+                    readField(post, Activity.Field.LocationIP);
+                    readField(post, Activity.Field.BrowserUsed);
+                    readField(post, Activity.Field.Language);
+                    readField(post, Activity.Field.Content);
+                    readField(post, Activity.Field.Tags);
+                    post.forumId = readVarInt();
+                    post.placeId = readVarInt();
+                    return post;
+                }
+                case Comment:
+                    return readCommentFields(new Activity.Comment());
+                case Reply: {
+                    Activity.Reply reply = readCommentFields(new Activity.Reply());
+                    reply.parentId = readVarInt();
+                    return reply;
+                }
+                case Like: {
+                    Activity.Like like = new Activity.Like();
+                    like.personId = readVarInt();
+                    like.postId = readVarInt();
+                    readCreationDate(like);
+                    return like;
+                }
+                default: {
+                    Activity.Tombstone tombstone = new Activity.Tombstone();
+                    tombstone.postId = readVarInt();
+                    readCreationDate(tombstone);
+                    return tombstone;
+                }
+            }
+        } finally {
+            in = null;  // do not hold on to the record
+        }
+    }
+
+    private <T extends Activity.Comment> T readCommentFields(T comment) throws IOException {
+        comment.commentId = readVarInt();
+        comment.personId = readVarInt();
+        readCreationDate(comment);
+        readField(comment, Activity.Field.LocationIP);
+        readField(comment, Activity.Field.BrowserUsed);
+        readField(comment, Activity.Field.Content);
+        comment.postId = readVarInt();
+        comment.placeId = readVarInt();
+        return comment;
+    }
+
+    private void writeCreationDate(Activity activity) {
+        long timestamp = activity.creationTimestamp;
+        writeVarLong(timestamp);
+        String date = activity.creationDate;
+        String canonical = TimestampCodec.format(timestamp);
+        if (date != null && date.startsWith(canonical)) {
+            writeString(date.substring(CANONICAL_DATE_LENGTH));
+        } else {
+            writeString(null);
+            writeString(date);
+        }
+    }
+
+    private void readCreationDate(Activity activity) throws IOException {
+        long timestamp = readVarLong();
+        activity.creationTimestamp = timestamp;
+        int suffixLength = readLength();
+        if (suffixLength < 0) {
+            activity.creationDate = readString();
+            return;
+        }
+        date.setLength(0);
+        TimestampCodec.formatTo(timestamp, date);
+        for (int i = inPosition; i < inPosition + suffixLength; i++) {
+            if (in[i] < 0) {  // not ASCII
+                date.append(new String(in, i, inPosition + suffixLength - i, StandardCharsets.UTF_8));
+                break;
+            }
+            date.append((char) in[i]);
+        }
+        inPosition += suffixLength;
+        activity.creationDate = date.toString();
+    }
+
+    // writes a wide field, from the raw record if it has not been decoded yet
+    private void writeField(Activity activity, Activity.Field field, String value) {
+        if (value == null && activity.hasRawField(field)) {
+            int from = activity.rawSpans[2 * field.ordinal()];
+            int length = activity.rawSpans[2 * field.ordinal() + 1] - from;
+            writeUnsignedVarInt(length + 1);
+            ensureCapacity(length);
+            System.arraycopy(activity.raw, from, out, outPosition, length);
+            outPosition += length;
+            return;
+        }
+        writeString(value);
+    }
+
+    // only records where a wide field is, it is decoded on first access
+    private void readField(Activity activity, Activity.Field field) throws IOException {
+        int length = readLength();
+        if (length >= 0) {
+            activity.setRawField(field, in, inPosition, inPosition + length);
+            inPosition += length;
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (outPosition + bytes > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outPosition + bytes));
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        out[outPosition++] = (byte) b;
+    }
+
+    private void writeVarInt(int value) {
+        writeVarLong(value);
+    }
+
+    private void writeVarLong(long value) {
+        ensureCapacity(10);
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out[outPosition++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out[outPosition++] = (byte) zigzag;
+    }
+
+    private void writeUnsignedVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            out[outPosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[outPosition++] = (byte) value;
+    }
+
+    private void writeString(String s) {
+        if (s == null) {
+            writeUnsignedVarInt(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeUnsignedVarInt(bytes.length + 1);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, out, outPosition, bytes.length);
+        outPosition += bytes.length;
+    }
+
+    private int readByte() throws IOException {
+        if (inPosition >= in.length) {
+            throw new IOException("Truncated activity record");
+        }
+        return in[inPosition++] & 0xFF;
+    }
+
+    private int readVarInt() throws IOException {
+        long value = readVarLong();
+        if (value != (int) value) {
+            throw new IOException("Activity record field out of int range: " + value);
+        }
+        return (int) value;
+    }
+
+    private long readVarLong() throws IOException {
+        long zigzag = readUnsignedVarLong();
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private long readUnsignedVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in activity record");
+    }
+
+    private String readString() throws IOException {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(in, inPosition, length, StandardCharsets.UTF_8);
+        inPosition += length;
+        return s;
+    }
+
+    // returns the length of the following string, -1 for null
+    private int readLength() throws IOException {
+        long length = readUnsignedVarLong() - 1;
+        if (length > in.length - inPosition) {
+            throw new IOException("Truncated activity record");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Kafka serializer for the Producer, writing the binary format.
+     */
+    public static class KafkaSerializer implements Serializer<Activity> {
+        private final ActivityBinaryFormat format = new ActivityBinaryFormat();
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {}
+
+        @Override
+        public byte[] serialize(String topic, Activity activity) {
+            return activity == null ? null : format.encode(activity);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Flink deserialization schema for the binary format, the counterpart of Activity.Deserializer.
+     */
+    public static class Deserializer extends Activity.Deserializer {
+        private transient ActivityBinaryFormat format;
+
+        public Deserializer() {
+            super();
+        }
+
+        public Deserializer(Set<Activity.Field> requiredFields) {
+            super(requiredFields);
+        }
+
+        @Override
+        public Activity deserialize(byte[] bytes) throws IOException {
+            if (format == null) {
+                format = new ActivityBinaryFormat();
+            }
+            return project(format.decode(bytes));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package socialnetwork.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Dictionary of the low-cardinality activity fields (browserUsed and language), mapping every distinct value
+ * to a small int code and to one canonical String instance.
+ *
+ * Decoded activities share the canonical instances instead of holding their own copy of every value, and
+ * ActivitySerializer writes the codes instead of the strings. The dictionary grows during ingest and codes are
+ * never reassigned. Reads are lock-free on copy-on-write tables, only adding a value takes a lock.
+ *
+ * There is one dictionary per JVM, so codes written by one JVM can only be read by the same JVM. The contents
+ * are stored in the ActivitySerializer snapshot of every checkpoint and restored from there, but codes added
+ * while the snapshot is taken can be missing from it, so a restored job can decode them to other values. This is
+ * why Config.useDictionaryEncoding is off by default, and only meant for local jobs without checkpoints.
+ */
+public final class ActivityDictionary {
+    static final Set<Activity.Field> FIELDS = EnumSet.of(Activity.Field.BrowserUsed, Activity.Field.Language);
+
+    // values beyond this many per field are not coded, far more than the LDBC data has, but it keeps the
+    // copy-on-write tables small if a high-cardinality field is ever coded by mistake
+    static final int MAX_CODES = 1 << 12;
+
+    private static final ActivityDictionary shared = new ActivityDictionary();
+
+    private final AtomicReferenceArray<Table> tables = new AtomicReferenceArray<>(Activity.Field.values().length);
+
+    private ActivityDictionary() {
+        for (Activity.Field field : FIELDS) {
+            tables.set(field.ordinal(), new Table(new String[0], new byte[0][]));
+        }
+    }
+
+    public static ActivityDictionary shared() {
+        return shared;
+    }
+
+    public static boolean isEncoded(Activity.Field field) {
+        return FIELDS.contains(field);
+    }
+
+    /**
+     * Returns the code of the value, adding it if it is new, or -1 if the value cannot be coded.
+     */
+    public int encode(Activity.Field field, String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer code = tables.get(field.ordinal()).codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return add(field, bytes, 0, bytes.length);
+    }
+
+    public int encode(Activity.Field field, byte[] b, int from, int to) {
+        Table table = tables.get(field.ordinal());
+        int code = table.find(b, from, to);
+        return code >= 0 ? code : add(field, b, from, to);
+    }
+
+    /**
+     * Returns the value of the code, or null if the code is unknown.
+     */
+    public String decode(Activity.Field field, int code) {
+        String[] values = tables.get(field.ordinal()).values;
+        return code >= 0 && code < values.length ? values[code] : null;
+    }
+
+    /**
+     * Returns the canonical instance of the value in b[from, to), without allocating if it is already known.
+     */
+    public String canonical(Activity.Field field, byte[] b, int from, int to) {
+        int code = encode(field, b, from, to);
+        return code >= 0 ? decode(field, code) : new String(b, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * All values of the field, indexed by their code.
+     */
+    public String[] values(Activity.Field field) {
+        return tables.get(field.ordinal()).values.clone();
+    }
+
+    /**
+     * Restores values saved with values(field), so that they get their old codes back.
+     *
+     * @throws IllegalStateException if a code is already taken by a different value
+     */
+    public synchronized void restore(Activity.Field field, String[] values) {
+        for (int code = 0; code < values.length; code++) {
+            byte[] bytes = values[code].getBytes(StandardCharsets.UTF_8);
+            int existing = encode(field, bytes, 0, bytes.length);
+            if (existing != code) {
+                throw new IllegalStateException(String.format(
+                        "Cannot restore %s dictionary: \"%s\" has code %d instead of %d", field, values[code], existing, code));
+            }
+        }
+    }
+
+    private synchronized int add(Activity.Field field, byte[] b, int from, int to) {
+        Table table = tables.get(field.ordinal());
+        int code = table.find(b, from, to);  // another thread may have added it meanwhile
+        if (code >= 0 || table.values.length >= MAX_CODES) {
+            return code;
+        }
+        String[] values = Arrays.copyOf(table.values, table.values.length + 1);
+        byte[][] bytes = Arrays.copyOf(table.bytes, table.bytes.length + 1);
+        values[values.length - 1] = new String(b, from, to - from, StandardCharsets.UTF_8);
+        bytes[bytes.length - 1] = Arrays.copyOfRange(b, from, to);
+        tables.set(field.ordinal(), new Table(values, bytes));
+        return values.length - 1;
+    }
+
+    /**
+     * Packs a dotted IPv4 address into an int, the value is -1 if the text is not a canonical IPv4 address
+     * (e.g. it has leading zeros), because then the packed form would not give back the same text.
+     */
+    static long packIPv4(byte[] b, int from, int to) {
+        long packed = 0;
+        int octets = 0, value = 0, digits = 0;
+        for (int i = from; i <= to; i++) {
+            if (i == to || b[i] == '.') {
+                if (digits == 0 || value > 255 || (digits > 1 && b[i - digits] == '0')) {
+                    return -1;
+                }
+                packed = packed << 8 | value;
+                octets++;
+                value = 0;
+                digits = 0;
+            } else if (b[i] >= '0' && b[i] <= '9' && digits < 3) {
+                value = value * 10 + (b[i] - '0');
+                digits++;
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 ? packed : -1;
+    }
+
+    static long packIPv4(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        return packIPv4(bytes, 0, bytes.length);
+    }
+
+    static String formatIPv4(int packed) {
+        return (packed >>> 24) + "." + (packed >>> 16 & 0xFF) + "." + (packed >>> 8 & 0xFF) + "." + (packed & 0xFF);
+    }
+
+    /**
+     * Immutable code table of one field: the values by code, their UTF-8 bytes, the codes by value, and an
+     * open addressing hash table of code + 1 (0 means empty) for lookups by bytes.
+     */
+    private static final class Table {
+        final String[] values;
+        final byte[][] bytes;
+        final Map<String, Integer> codes = new HashMap<>();
+        final int[] slots;
+
+        Table(String[] values, byte[][] bytes) {
+            this.values = values;
+            this.bytes = bytes;
+            this.slots = new int[Integer.highestOneBit(Math.max(4, values.length * 2)) * 2];
+            for (int code = 0; code < bytes.length; code++) {
+                codes.put(values[code], code);
+                int slot = hash(bytes[code], 0, bytes[code].length) & (slots.length - 1);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & (slots.length - 1);
+                }
+                slots[slot] = code + 1;
+            }
+        }
+
+        int find(byte[] b, int from, int to) {
+            int slot = hash(b, from, to) & (slots.length - 1);
+            while (slots[slot] != 0) {
+                byte[] candidate = bytes[slots[slot] - 1];
+                if (equals(candidate, b, from, to)) {
+                    return slots[slot] - 1;
+                }
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            return -1;
+        }
+
+        private static int hash(byte[] b, int from, int to) {
+            int h = 1;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + b[i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equals(byte[] candidate, byte[] b, int from, int to) {
+            if (candidate.length != to - from) {
+                return false;
+            }
+            for (int i = 0; i < candidate.length; i++) {
+                if (candidate[i] != b[from + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
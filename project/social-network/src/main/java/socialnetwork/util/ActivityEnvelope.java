@@ -0,0 +1,166 @@
+package socialnetwork.util;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.apache.flink.api.common.serialization.AbstractDeserializationSchema;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.ListTypeInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Envelope packing many encoded activities into one LZ4-compressed Kafka record, so that the per-record
+ * overhead of Kafka and of the consumer is paid once per envelope instead of once per activity.
+ *
+ * Layout: a magic byte, a version byte, the number of records and the uncompressed length as ints, then the
+ * LZ4 block of all records, each as an int length followed by the record in the text or binary format.
+ */
+public class ActivityEnvelope {
+    private static final byte MAGIC = (byte) 0xAE;
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 2 + 4 + 4;
+
+    private static final LZ4Factory lz4 = LZ4Factory.fastestInstance();
+
+    /**
+     * Collects encoded activities until the envelope is built. Not thread-safe.
+     */
+    public static class Builder {
+        private final LZ4Compressor compressor = lz4.fastCompressor();
+        private byte[] buffer = new byte[1 << 16];
+        private int length;
+        private int count;
+        private long firstTimestamp;
+
+        public void add(byte[] record, long timestamp) {
+            if (count == 0) {
+                firstTimestamp = timestamp;
+            }
+            if (length + 4 + record.length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + 4 + record.length));
+            }
+            ByteBuffer.wrap(buffer, length, 4).putInt(record.length);
+            System.arraycopy(record, 0, buffer, length + 4, record.length);
+            length += 4 + record.length;
+            count++;
+        }
+
+        public boolean isEmpty() {
+            return count == 0;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Event time between the first activity of the envelope and the given timestamp.
+         */
+        public long timeSpan(long timestamp) {
+            return count == 0 ? 0 : timestamp - firstTimestamp;
+        }
+
+        /**
+         * Builds the envelope of all activities added so far and starts a new one.
+         */
+        public byte[] build() {
+            byte[] envelope = new byte[HEADER_LENGTH + compressor.maxCompressedLength(length)];
+            ByteBuffer.wrap(envelope).put(MAGIC).put(VERSION).putInt(count).putInt(length);
+            int compressedLength = compressor.compress(buffer, 0, length, envelope, HEADER_LENGTH);
+            length = 0;
+            count = 0;
+            return Arrays.copyOf(envelope, HEADER_LENGTH + compressedLength);
+        }
+    }
+
+    /**
+     * Unpacks an envelope into its encoded activities.
+     */
+    public static List<byte[]> unpack(byte[] envelope) throws IOException {
+        return unpack(envelope, lz4.fastDecompressor());
+    }
+
+    private static List<byte[]> unpack(byte[] envelope, LZ4FastDecompressor decompressor) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(envelope);
+        if (envelope.length < HEADER_LENGTH || header.get() != MAGIC) {
+            throw new IOException("Not an activity envelope");
+        }
+        byte version = header.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported activity envelope version " + version);
+        }
+        int count = header.getInt();
+        int length = header.getInt();
+        // LZ4 compresses by at most 255:1, so a larger length is corrupt
+        if (length < 0 || length / 255 > envelope.length - HEADER_LENGTH || count < 0 || count > length / 4) {
+            throw new IOException(String.format("Corrupt activity envelope of %d bytes: %d records of %d bytes",
+                    envelope.length, count, length));
+        }
+        byte[] records = new byte[length];
+        try {
+            decompressor.decompress(envelope, HEADER_LENGTH, records, 0, records.length);
+        } catch (LZ4Exception e) {
+            throw new IOException("Corrupt activity envelope: " + e.getMessage(), e);
+        }
+
+        List<byte[]> result = new ArrayList<>(count);
+        ByteBuffer in = ByteBuffer.wrap(records);
+        for (int i = 0; i < count; i++) {
+            int recordLength = in.remaining() >= 4 ? in.getInt() : -1;
+            if (recordLength < 0 || recordLength > in.remaining()) {
+                throw new IOException(String.format("Corrupt activity envelope: record %d of %d has length %d with"
+                        + " %d bytes left", i, count, recordLength, in.remaining()));
+            }
+            byte[] record = new byte[recordLength];
+            in.get(record);
+            result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * Flink deserialization schema unpacking envelopes, the activities are decoded with the given record
+     * deserializer. The stream ends with the first envelope that contains a Tombstone.
+     */
+    public static class Deserializer extends AbstractDeserializationSchema<List<Activity>> {
+        private final Activity.Deserializer recordDeserializer;
+        private transient LZ4FastDecompressor decompressor;
+
+        public Deserializer(Activity.Deserializer recordDeserializer) {
+            super(new ListTypeInfo<>(TypeInformation.of(Activity.class)));
+            this.recordDeserializer = recordDeserializer;
+        }
+
+        @Override
+        public List<Activity> deserialize(byte[] envelope) throws IOException {
+            if (decompressor == null) {
+                decompressor = lz4.fastDecompressor();
+            }
+            List<byte[]> records = unpack(envelope, decompressor);
+            List<Activity> activities = new ArrayList<>(records.size());
+            for (byte[] record : records) {
+                Activity activity = recordDeserializer.deserialize(record);
+                if (activity != null) {
+                    activities.add(activity);
+                }
+            }
+            return activities;
+        }
+
+        @Override
+        public boolean isEndOfStream(List<Activity> nextElement) {
+            for (Activity activity : nextElement) {
+                if (recordDeserializer.isEndOfStream(activity)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
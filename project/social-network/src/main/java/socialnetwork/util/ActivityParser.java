@@ -0,0 +1,220 @@
+package socialnetwork.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single-pass parser that builds activities directly from the bytes of a pipe-separated record,
+ * e.g. the payload of a Kafka record or a line of a cleaned stream file.
+ *
+ * The parser scans the bytes once to find the field boundaries, parses the numeric fields in place and
+ * only materializes a String for the textual fields. It keeps a reusable boundary buffer, so an instance
+ * must not be shared between threads.
+ *
+ * In lazy mode, the wide fields (see Activity.Field) are not decoded at all. The activities keep a reference
+ * to the parsed bytes and decode them on first access, so the bytes must not be modified afterwards.
+ */
+public class ActivityParser {
+    private static final byte PIPE = '|';
+    private static final int MAX_FIELDS = 11;  // Post has the most fields
+
+    private final boolean lazy;
+
+    // bounds[i] is the offset of the first byte of field i, bounds[i + 1] - 1 is the offset of its separator
+    private final int[] bounds = new int[MAX_FIELDS + 1];
+
+    public ActivityParser() {
+        this(false);
+    }
+
+    public ActivityParser(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Parses a record of the form "X|field|field|...", where X is the type prefix (P, C, L or T).
+     */
+    public Activity parse(byte[] bytes) {
+        return parse(bytes, 0, bytes.length);
+    }
+
+    public Activity parse(byte[] bytes, int from, int to) {
+        if (to - from < 2 || bytes[from + 1] != PIPE) {
+            Activity.logger.error("Cannot create Activity of unknown type from {}", decode(bytes, from, to));
+            return null;
+        }
+        return parse((char) bytes[from], bytes, from + 2, to);
+    }
+
+    /**
+     * Parses the fields of a record without its type prefix, e.g. a line of a cleaned stream file.
+     */
+    public Activity parse(char type, byte[] bytes, int from, int to) {
+        // ignore line terminators
+        while (to > from && (bytes[to - 1] == '\n' || bytes[to - 1] == '\r')) {
+            to--;
+        }
+
+        switch (type) {
+            case 'P': return parsePost(bytes, from, to);
+            case 'C': return parseComment(bytes, from, to);
+            case 'L': return parseLike(bytes, from, to);
+            case 'T': return parseTombstone(bytes, from, to);
+            default:
+                Activity.logger.error("Cannot create Activity of unknown type from {}|{}", type, decode(bytes, from, to));
+                return null;
+        }
+    }
+
+    /**
+     Format:
+     id|personId|creationDate|imageFile|locationIP|browserUsed|language|content|tags|forumId|placeId
+     */
+    private Activity.Post parsePost(byte[] b, int from, int to) {
+        split(b, from, to, 11);
+        Activity.Post post = new Activity.Post();
+        post.postId = intField(b, 0);
+        post.personId = intField(b, 1);
+        dateField(post, b, 2);
+        post.imageFile = wideField(post, Activity.Field.ImageFile, b, 3);
+        post.locationIP = wideField(post, Activity.Field.LocationIP, b, 4);
+        post.browserUsed = wideField(post, Activity.Field.BrowserUsed, b, 5);
+        post.language = wideField(post, Activity.Field.Language, b, 6);
+        post.content = wideField(post, Activity.Field.Content, b, 7);
+        post.tags = wideField(post, Activity.Field.Tags, b, 8);
+        post.forumId = intField(b, 9);
+        post.placeId = intField(b, 10);
+        return post;
+    }
+
+    /**
+     Format:
+     id|personId|creationDate|locationIP|browserUsed|content|reply_to_postId|reply_to_commentId|placeId
+     */
+    private Activity.Comment parseComment(byte[] b, int from, int to) {
+        split(b, from, to, 9);
+        Activity.Comment comment;
+        if (isEmpty(6)) {  // no reply_to_postId
+            Activity.Reply reply = new Activity.Reply();
+            reply.postId = -1;
+            reply.parentId = intField(b, 7);
+            comment = reply;
+        } else {
+            comment = new Activity.Comment();
+            comment.postId = intField(b, 6);
+        }
+        comment.commentId = intField(b, 0);
+        comment.personId = intField(b, 1);
+        dateField(comment, b, 2);
+        comment.locationIP = wideField(comment, Activity.Field.LocationIP, b, 3);
+        comment.browserUsed = wideField(comment, Activity.Field.BrowserUsed, b, 4);
+        comment.content = wideField(comment, Activity.Field.Content, b, 5);
+        comment.placeId = intField(b, 8);
+        return comment;
+    }
+
+    /**
+     Format:
+     Person.id|Post.id|creationDate
+     */
+    private Activity.Like parseLike(byte[] b, int from, int to) {
+        split(b, from, to, 3);
+        Activity.Like like = new Activity.Like();
+        like.personId = intField(b, 0);
+        like.postId = intField(b, 1);
+        dateField(like, b, 2);
+        return like;
+    }
+
+    /**
+     Format:
+     postId|creationDate
+     */
+    private Activity.Tombstone parseTombstone(byte[] b, int from, int to) {
+        split(b, from, to, 2);
+        Activity.Tombstone tombstone = new Activity.Tombstone();
+        tombstone.postId = intField(b, 0);
+        dateField(tombstone, b, 1);
+        return tombstone;
+    }
+
+    /**
+     * Finds the boundaries of the first numFields fields in bytes[from, to). Any bytes after the last
+     * expected field are ignored, as String.split would put them into further array elements.
+     */
+    private void split(byte[] b, int from, int to, int numFields) {
+        int field = 0;
+        bounds[0] = from;
+        for (int i = from; i < to && field < numFields - 1; i++) {
+            if (b[i] == PIPE) {
+                bounds[++field] = i + 1;
+            }
+        }
+        if (field < numFields - 1) {
+            throw new IllegalArgumentException(String.format("Expected %d fields but found %d in \"%s\"",
+                    numFields, field + 1, decode(b, from, to)));
+        }
+
+        // the last field ends at the next separator or at the end of the record
+        int end = bounds[field];
+        while (end < to && b[end] != PIPE) {
+            end++;
+        }
+        bounds[numFields] = end + 1;
+    }
+
+    private boolean isEmpty(int field) {
+        return bounds[field + 1] - 1 == bounds[field];
+    }
+
+    // in lazy mode, only records where the field is and returns null
+    private String wideField(Activity activity, Activity.Field wide, byte[] b, int field) {
+        if (!lazy) {
+            return Activity.decodeField(wide, b, bounds[field], bounds[field + 1] - 1);
+        }
+        activity.setRawField(wide, b, bounds[field], bounds[field + 1] - 1);
+        return null;
+    }
+
+    private void dateField(Activity activity, byte[] b, int field) {
+        activity.setCreationDate(b, bounds[field], bounds[field + 1] - 1);
+    }
+
+    private int intField(byte[] b, int field) {
+        return parseInt(b, bounds[field], bounds[field + 1] - 1);
+    }
+
+    /**
+     * Parses a decimal int from bytes[from, to) without creating an intermediate String, accepting the same
+     * inputs as Integer.parseInt, including a leading '+' or '-'.
+     */
+    static int parseInt(byte[] b, int from, int to) {
+        if (from >= to) {
+            throw new NumberFormatException("For input string: \"\"");
+        }
+        boolean negative = b[from] == '-';
+        int i = negative || b[from] == '+' ? from + 1 : from;
+        if (i == to) {
+            throw new NumberFormatException("For input string: \"" + decode(b, from, to) + "\"");
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + decode(b, from, to) + "\"");
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("For input string: \"" + decode(b, from, to) + "\"");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + decode(b, from, to) + "\"");
+        }
+        return (int) value;
+    }
+
+    private static String decode(byte[] b, int from, int to) {
+        return new String(b, from, to - from, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,489 @@
+package socialnetwork.util;
+
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.common.typeutils.TypeSerializerSchemaCompatibility;
+import org.apache.flink.api.common.typeutils.TypeSerializerSnapshot;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Flink serializer for the whole Activity class hierarchy, used instead of the Kryo fallback.
+ *
+ * Every record starts with a one-byte type tag (the ordinal of its ActivityType), followed by the fields
+ * of that type as primitives. Strings are written as their UTF-8 length followed by the bytes, -1 for null.
+ * Wide fields that were not decoded yet are copied straight from the raw record, and dropped fields are
+ * written as null, so projected activities are also smaller on the wire. On the way back in, the wide string
+ * fields are read into a raw record again and only decoded on first access.
+ *
+ * With dictionary encoding (Config.useDictionaryEncoding), the low-cardinality fields are written as their
+ * ActivityDictionary code and IPv4 locations as a packed int. Codes are only valid within one JVM, see
+ * ActivityDictionary.
+ *
+ * Since version 2, with latency tracking (Config.trackLatency), the send time (see Activity.getSendTime) follows
+ * the creation date, so end-to-end latencies can be measured after any number of network exchanges. Without it,
+ * the records are as long as in version 1.
+ *
+ * The layout is versioned through FORMAT_VERSION. The version, the dictionary and send time settings and the
+ * dictionary itself are stored in the serializer snapshot that goes into every checkpoint and savepoint. After a
+ * layout change, a restored job reads its old state with a serializer for the old layout and Flink migrates it.
+ */
+public final class ActivitySerializer extends TypeSerializer<Activity> {
+    private static final long serialVersionUID = 1L;
+
+    /** Version of the record layout written by this serializer, bump it whenever the layout changes. */
+    static final int FORMAT_VERSION = 2;  // 1 had no send time
+
+    private static final Activity.ActivityType[] TYPES = Activity.ActivityType.values();
+
+    private final int formatVersion;
+    private final boolean dictionaryEncoding;
+    private final boolean sendTimes;
+
+    public ActivitySerializer() {
+        this(FORMAT_VERSION, Config.useDictionaryEncoding, Config.trackLatency);
+    }
+
+    ActivitySerializer(int formatVersion, boolean dictionaryEncoding, boolean sendTimes) {
+        this.formatVersion = formatVersion;
+        this.dictionaryEncoding = dictionaryEncoding;
+        this.sendTimes = sendTimes && formatVersion >= 2;
+    }
+
+    @Override
+    public boolean isImmutableType() {
+        return false;
+    }
+
+    @Override
+    public TypeSerializer<Activity> duplicate() {
+        return this;  // stateless
+    }
+
+    @Override
+    public Activity createInstance() {
+        return null;  // the concrete type is only known once the tag is read
+    }
+
+    @Override
+    public Activity copy(Activity from) {
+        if (from == null) {
+            return null;
+        }
+        switch (from.getType()) {
+            case Post: {
+                Activity.Post source = (Activity.Post) from, post = new Activity.Post();
+                copyCommonFields(source, post);
+                post.imageFile = source.imageFile;
+                post.locationIP = source.locationIP;
+                post.browserUsed = source.browserUsed;
+                post.language = source.language;
+                post.content = source.content;
+                post.tags = source.tags;
+                post.forumId = source.forumId;
+                post.placeId = source.placeId;
+                return post;
+            }
+            case Comment:
+                return copyCommentFields((Activity.Comment) from, new Activity.Comment());
+            case Reply: {
+                Activity.Reply reply = copyCommentFields((Activity.Reply) from, new Activity.Reply());
+                reply.parentId = ((Activity.Reply) from).parentId;
+                return reply;
+            }
+            case Like:
+                return copyCommonFields(from, new Activity.Like());
+            default:
+                return copyCommonFields(from, new Activity.Tombstone());
+        }
+    }
+
+    @Override
+    public Activity copy(Activity from, Activity reuse) {
+        return copy(from);
+    }
+
+    @Override
+    public int getLength() {
+        return -1;
+    }
+
+    @Override
+    public void serialize(Activity activity, DataOutputView out) throws IOException {
+        Activity.ActivityType type = activity.getType();
+        out.writeByte(type.ordinal());
+
+        switch (type) {
+            case Post: {
+                Activity.Post post = (Activity.Post) activity;
+                out.writeInt(post.postId);
+                out.writeInt(post.personId);
+                writeCreationDate(post, out);
+                writeField(post, Activity.Field.ImageFile, post.imageFile, out);
+                writeField(post, Activity.Field.LocationIP, post.locationIP, out);
+                writeField(post, Activity.Field.BrowserUsed, post.browserUsed, out);
+                writeField(post, Activity.Field.Language, post.language, out);
+                writeField(post, Activity.Field.Content, post.content, out);
+                writeField(post, Activity.Field.Tags, post.tags, out);
+                out.writeInt(post.forumId);
+                out.writeInt(post.placeId);
+                break;
+            }
+            case Comment:
+            case Reply: {
+                Activity.Comment comment = (Activity.Comment) activity;
+                out.writeInt(comment.commentId);
+                out.writeInt(comment.personId);
+                writeCreationDate(comment, out);
+                writeField(comment, Activity.Field.LocationIP, comment.locationIP, out);
+                writeField(comment, Activity.Field.BrowserUsed, comment.browserUsed, out);
+                writeField(comment, Activity.Field.Content, comment.content, out);
+                out.writeInt(comment.postId);
+                out.writeInt(comment.placeId);
+                if (type == Activity.ActivityType.Reply) {
+                    out.writeInt(((Activity.Reply) comment).parentId);
+                }
+                break;
+            }
+            case Like:
+                out.writeInt(activity.personId);
+                out.writeInt(activity.postId);
+                writeCreationDate(activity, out);
+                break;
+            case Tombstone:
+                out.writeInt(activity.postId);
+                writeCreationDate(activity, out);
+                break;
+        }
+    }
+
+    @Override
+    public Activity deserialize(DataInputView in) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag >= TYPES.length) {
+            throw new IOException("Unknown activity type tag " + tag);
+        }
+
+        switch (TYPES[tag]) {
+            case Post: {
+                Activity.Post post = new Activity.Post();
+                post.postId = in.readInt();
+                post.personId = in.readInt();
+                readCreationDate(post, in);
+                RawFields raw = new RawFields();
+                post.imageFile = readField(Activity.Field.ImageFile, in, raw);
+                post.locationIP = readField(Activity.Field.LocationIP, in, raw);
+                post.browserUsed = readField(Activity.Field.BrowserUsed, in, raw);
+                post.language = readField(Activity.Field.Language, in, raw);
+                post.content = readField(Activity.Field.Content, in, raw);
+                post.tags = readField(Activity.Field.Tags, in, raw);
+                raw.attachTo(post);
+                post.forumId = in.readInt();
+                post.placeId = in.readInt();
+                return post;
+            }
+            case Comment:
+                return readCommentFields(new Activity.Comment(), in);
+            case Reply: {
+                Activity.Reply reply = readCommentFields(new Activity.Reply(), in);
+                reply.parentId = in.readInt();
+                return reply;
+            }
+            case Like: {
+                Activity.Like like = new Activity.Like();
+                like.personId = in.readInt();
+                like.postId = in.readInt();
+                readCreationDate(like, in);
+                return like;
+            }
+            default: {
+                Activity.Tombstone tombstone = new Activity.Tombstone();
+                tombstone.postId = in.readInt();
+                readCreationDate(tombstone, in);
+                return tombstone;
+            }
+        }
+    }
+
+    @Override
+    public Activity deserialize(Activity reuse, DataInputView in) throws IOException {
+        return deserialize(in);
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        serialize(deserialize(source), target);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ActivitySerializer && ((ActivitySerializer) obj).formatVersion == formatVersion
+                && ((ActivitySerializer) obj).dictionaryEncoding == dictionaryEncoding
+                && ((ActivitySerializer) obj).sendTimes == sendTimes;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((ActivitySerializer.class.hashCode() * 31 + formatVersion) * 31 + (dictionaryEncoding ? 1 : 0)) * 31
+                + (sendTimes ? 1 : 0);
+    }
+
+    @Override
+    public TypeSerializerSnapshot<Activity> snapshotConfiguration() {
+        return new Snapshot(formatVersion, dictionaryEncoding, sendTimes);
+    }
+
+    private static <T extends Activity> T copyCommonFields(Activity from, T to) {
+        to.personId = from.personId;
+        to.postId = from.postId;
+        to.creationDate = from.creationDate;
+        to.creationTimestamp = from.creationTimestamp;
+        to.sendTime = from.sendTime;
+        to.raw = from.raw;  // never modified, so it can be shared
+        to.rawSpans = from.rawSpans == null ? null : from.rawSpans.clone();
+        return to;
+    }
+
+    private static <T extends Activity.Comment> T copyCommentFields(Activity.Comment from, T to) {
+        copyCommonFields(from, to);
+        to.commentId = from.commentId;
+        to.locationIP = from.locationIP;
+        to.browserUsed = from.browserUsed;
+        to.content = from.content;
+        to.placeId = from.placeId;
+        return to;
+    }
+
+    private <T extends Activity.Comment> T readCommentFields(T comment, DataInputView in) throws IOException {
+        comment.commentId = in.readInt();
+        comment.personId = in.readInt();
+        readCreationDate(comment, in);
+        RawFields raw = new RawFields();
+        comment.locationIP = readField(Activity.Field.LocationIP, in, raw);
+        comment.browserUsed = readField(Activity.Field.BrowserUsed, in, raw);
+        comment.content = readField(Activity.Field.Content, in, raw);
+        raw.attachTo(comment);
+        comment.postId = in.readInt();
+        comment.placeId = in.readInt();
+        return comment;
+    }
+
+    private void writeCreationDate(Activity activity, DataOutputView out) throws IOException {
+        out.writeLong(activity.creationTimestamp);
+        writeString(activity.creationDate, out);
+        if (sendTimes) {
+            out.writeLong(activity.sendTime);
+        }
+    }
+
+    private void readCreationDate(Activity activity, DataInputView in) throws IOException {
+        activity.creationTimestamp = in.readLong();
+        activity.creationDate = readString(in);
+        if (sendTimes) {
+            activity.sendTime = in.readLong();
+        }
+    }
+
+    // writes a wide field, from the raw record if it has not been decoded yet
+    private void writeField(Activity activity, Activity.Field field, String value, DataOutputView out)
+            throws IOException {
+        if (dictionaryEncoding && ActivityDictionary.isEncoded(field)) {
+            int code = value != null ? ActivityDictionary.shared().encode(field, value)
+                    : activity.hasRawField(field) ? ActivityDictionary.shared().encode(field, activity.raw,
+                            activity.rawSpans[2 * field.ordinal()], activity.rawSpans[2 * field.ordinal() + 1])
+                    : -1;
+            out.writeShort(code + 1);  // 0 if the value follows as a string
+            if (code >= 0) {
+                return;
+            }
+        } else if (dictionaryEncoding && field == Activity.Field.LocationIP) {
+            long ip = value != null ? ActivityDictionary.packIPv4(value)
+                    : activity.hasRawField(field) ? ActivityDictionary.packIPv4(activity.raw,
+                            activity.rawSpans[2 * field.ordinal()], activity.rawSpans[2 * field.ordinal() + 1])
+                    : -1;
+            out.writeBoolean(ip >= 0);
+            if (ip >= 0) {
+                out.writeInt((int) ip);
+                return;
+            }
+        }
+        if (value == null && activity.hasRawField(field)) {
+            int from = activity.rawSpans[2 * field.ordinal()];
+            int length = activity.rawSpans[2 * field.ordinal() + 1] - from;
+            out.writeInt(length);
+            out.write(activity.raw, from, length);
+            return;
+        }
+        writeString(value, out);
+    }
+
+    // reads a wide field, a plain string is only read into raw and decoded on first access
+    private String readField(Activity.Field field, DataInputView in, RawFields raw) throws IOException {
+        if (dictionaryEncoding && ActivityDictionary.isEncoded(field)) {
+            int code = in.readUnsignedShort() - 1;
+            if (code >= 0) {
+                String value = ActivityDictionary.shared().decode(field, code);
+                if (value == null) {
+                    throw new IOException(String.format("Unknown %s dictionary code %d, dictionary codes can only be"
+                            + " read by the JVM that wrote them", field, code));
+                }
+                return value;
+            }
+        } else if (dictionaryEncoding && field == Activity.Field.LocationIP && in.readBoolean()) {
+            return ActivityDictionary.formatIPv4(in.readInt());
+        }
+        raw.read(field, in);
+        return null;
+    }
+
+    // the plain string wide fields of a record, read into one array for Activity.setRawField
+    private static final class RawFields {
+        private byte[] bytes = new byte[256];
+        private int length;
+        private final int[] spans = new int[2 * Activity.Field.values().length];
+
+        RawFields() {
+            Arrays.fill(spans, -1);
+        }
+
+        void read(Activity.Field field, DataInputView in) throws IOException {
+            int fieldLength = in.readInt();
+            if (fieldLength < 0) {
+                return;  // null
+            }
+            if (length + fieldLength > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + fieldLength));
+            }
+            in.readFully(bytes, length, fieldLength);
+            spans[2 * field.ordinal()] = length;
+            spans[2 * field.ordinal() + 1] = length + fieldLength;
+            length += fieldLength;
+        }
+
+        void attachTo(Activity activity) {
+            byte[] record = null;
+            for (Activity.Field field : Activity.Field.values()) {
+                if (spans[2 * field.ordinal()] >= 0) {
+                    if (record == null) {
+                        record = Arrays.copyOf(bytes, length);  // raw must not be modified once it is set
+                    }
+                    activity.setRawField(field, record, spans[2 * field.ordinal()], spans[2 * field.ordinal() + 1]);
+                }
+            }
+        }
+    }
+
+    static void writeString(String s, DataOutputView out) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputView in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Snapshot of the serializer configuration: the record layout version, the dictionary and send time settings
+     * and, with dictionary encoding, the dictionary. Reading the snapshot restores the dictionary before any state that
+     * uses its codes is read.
+     *
+     * On restore, state written with the current layout and settings is compatible as is. State written with an
+     * older layout or other settings is read with a serializer for that layout and migrated. Layouts newer than
+     * this code are rejected.
+     */
+    public static final class Snapshot implements TypeSerializerSnapshot<Activity> {
+        private static final int SNAPSHOT_VERSION = 3;  // 2 had no send time setting, 1 no dictionary
+
+        private int formatVersion;
+        private boolean dictionaryEncoding;
+        private boolean sendTimes;
+
+        @SuppressWarnings("unused")
+        public Snapshot() {
+            // used when the snapshot is read back from a checkpoint
+        }
+
+        Snapshot(int formatVersion, boolean dictionaryEncoding, boolean sendTimes) {
+            this.formatVersion = formatVersion;
+            this.dictionaryEncoding = dictionaryEncoding;
+            this.sendTimes = sendTimes;
+        }
+
+        @Override
+        public int getCurrentVersion() {
+            return SNAPSHOT_VERSION;
+        }
+
+        @Override
+        public void writeSnapshot(DataOutputView out) throws IOException {
+            out.writeInt(formatVersion);
+            out.writeBoolean(dictionaryEncoding);
+            out.writeBoolean(sendTimes);
+            if (dictionaryEncoding) {
+                for (Activity.Field field : ActivityDictionary.FIELDS) {
+                    String[] values = ActivityDictionary.shared().values(field);
+                    out.writeInt(values.length);
+                    for (String value : values) {
+                        writeString(value, out);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void readSnapshot(int readVersion, DataInputView in, ClassLoader userCodeClassLoader) throws IOException {
+            if (readVersion < 1 || readVersion > SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported ActivitySerializer snapshot version " + readVersion);
+            }
+            formatVersion = in.readInt();
+            dictionaryEncoding = readVersion >= 2 && in.readBoolean();
+            // before the setting, version 2 records always had a send time
+            sendTimes = readVersion >= 3 ? in.readBoolean() : formatVersion >= 2;
+            if (dictionaryEncoding) {
+                for (Activity.Field field : ActivityDictionary.FIELDS) {
+                    String[] values = new String[in.readInt()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = readString(in);
+                    }
+                    try {
+                        ActivityDictionary.shared().restore(field, values);
+                    } catch (IllegalStateException e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public TypeSerializer<Activity> restoreSerializer() {
+            return new ActivitySerializer(formatVersion, dictionaryEncoding, sendTimes);
+        }
+
+        @Override
+        public TypeSerializerSchemaCompatibility<Activity> resolveSchemaCompatibility(TypeSerializer<Activity> newSerializer) {
+            if (!(newSerializer instanceof ActivitySerializer) || formatVersion > FORMAT_VERSION) {
+                return TypeSerializerSchemaCompatibility.incompatible();
+            }
+            ActivitySerializer serializer = (ActivitySerializer) newSerializer;
+            if (formatVersion == serializer.formatVersion && dictionaryEncoding == serializer.dictionaryEncoding
+                    && sendTimes == serializer.sendTimes) {
+                return TypeSerializerSchemaCompatibility.compatibleAsIs();
+            }
+            return TypeSerializerSchemaCompatibility.compatibleAfterMigration();
+        }
+    }
+}
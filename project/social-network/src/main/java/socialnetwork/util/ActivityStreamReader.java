@@ -0,0 +1,581 @@
+package socialnetwork.util;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Streams the activities of several time-sorted stream files in the order the Producer sends them, grouped by
+ * their output timestamp, without loading the files into memory.
+ *
+ * The files are merged lazily by creation timestamp, ties go to the file given first. When sending out of order,
+ * every activity is delayed by a random lateness below the given bound and goes through a reorder buffer, which
+ * only holds the activities of the last lateness window of the input: an activity is released once the input has
+ * moved past its output timestamp, because no later activity can be due before it.
+ *
+ * The lateness of an activity is a hash of a seed and the file offset of its line, so reading the files again
+ * with the same seed gives the same order. That makes a replay resumable from a ReplayCheckpoint, see resume.
+ *
+ * The files must be sorted by creation timestamp, like the cleaned stream files. The activities are parsed
+ * eagerly, so they do not keep a reference to the line buffers. Not thread-safe.
+ *
+ * forSplit streams only a split of the files, for readers that run in parallel: the files are memory-mapped and
+ * cut into blocks, and each split reads every numSplits-th block of every file.
+ *
+ * forRange, and forSplit and resume with a range, only stream the activities created within a time range. The
+ * files are read from the offsets their StreamIndex gives for the start, and only up to the end.
+ */
+public class ActivityStreamReader implements Iterator<Map.Entry<Long, List<Activity>>>, Closeable {
+    private final LineReader[] files;
+    private final PriorityQueue<LineReader> heads;
+    private final ActivityParser parser = new ActivityParser();
+
+    private final boolean inOrder;
+    private final int lateness;
+    private final long seed;
+    // the creation timestamps of the activities to stream, from inclusive and to exclusive
+    private final long from, to;
+    private final PriorityQueue<Delayed> reorderBuffer = new PriorityQueue<>();
+
+    // the lowest offset of each file among the activities with the output timestamp of the last group returned,
+    // for checkpoints taken in the middle of that group
+    private long groupTimestamp = Long.MIN_VALUE;
+    private final long[] groupOffsets;
+    // when resuming, the activities up to this output timestamp that were already sent, see skipSent
+    private long resumeTimestamp = Long.MIN_VALUE;
+    private long resumeSentAtTimestamp;
+
+    /**
+     * @param paths     stream files without type prefix in their lines, each with a header line
+     * @param types     the type prefix (e.g. 'C') of the activities in each file
+     * @param inOrder   whether to stream by creation timestamp, or delayed by a random lateness
+     * @param lateness  exclusive upper bound of the random lateness in milliseconds
+     */
+    public ActivityStreamReader(String[] paths, char[] types, boolean inOrder, int lateness) throws IOException {
+        this(paths, types, inOrder, lateness, new Random().nextLong(), new long[paths.length], Long.MIN_VALUE,
+                Long.MAX_VALUE);
+    }
+
+    /**
+     * Streams the activities created at or after from and before to, like the constructor does with all of them.
+     */
+    public static ActivityStreamReader forRange(String[] paths, char[] types, boolean inOrder, int lateness,
+                                                long from, long to) throws IOException {
+        return new ActivityStreamReader(paths, types, inOrder, lateness, new Random().nextLong(),
+                offsetsBefore(paths, from), from, to);
+    }
+
+    /**
+     * Continues the replay the checkpoint was taken of, see checkpoint: the files are read from the checkpointed
+     * offsets with the same seed, and the activities that were sent before the checkpoint are skipped.
+     *
+     * @param from the start of the range of the replay, see forRange, or Long.MIN_VALUE
+     * @param to   the end of the range of the replay, or Long.MAX_VALUE
+     */
+    public static ActivityStreamReader resume(String[] paths, char[] types, boolean inOrder, int lateness,
+                                              long from, long to, ReplayCheckpoint checkpoint) throws IOException {
+        ActivityStreamReader reader = new ActivityStreamReader(paths, types, inOrder, lateness, checkpoint.seed,
+                checkpoint.offsets, from, to);
+        reader.resumeTimestamp = checkpoint.timestamp;
+        reader.resumeSentAtTimestamp = checkpoint.sentAtTimestamp;
+        return reader;
+    }
+
+    private ActivityStreamReader(String[] paths, char[] types, boolean inOrder, int lateness, long seed,
+                                 long[] offsets, long from, long to) throws IOException {
+        this(paths.length, inOrder, lateness, seed, from, to);
+        try {
+            for (int i = 0; i < paths.length; i++) {
+                files[i] = new StreamLineReader(paths[i], types[i], i, offsets[i]);
+                if (offsets[i] == 0) {
+                    files[i].readLine();  // avoid header
+                }
+            }
+            start();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams one split of the files, like the constructor does with all of them. Every file is cut into blocks
+     * of blockSize bytes, and the split reads block b of each file if b % numSplits == split, starting with the
+     * first line that begins in the block. Since the blocks of the splits alternate, all splits move through
+     * event time at about the same pace.
+     *
+     * @param split     index of the split, between 0 and numSplits - 1
+     * @param blockSize bytes of each file read by one split before the next split's turn
+     */
+    public static ActivityStreamReader forSplit(String[] paths, char[] types, int split, int numSplits,
+                                                int blockSize, boolean inOrder, int lateness) throws IOException {
+        return forSplit(paths, types, split, numSplits, blockSize, inOrder, lateness, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Streams one split of the activities created at or after from and before to. The blocks before the offset
+     * the StreamIndex of a file gives for from are skipped.
+     */
+    public static ActivityStreamReader forSplit(String[] paths, char[] types, int split, int numSplits,
+                                                int blockSize, boolean inOrder, int lateness, long from, long to)
+            throws IOException {
+        long[] offsets = offsetsBefore(paths, from);
+        ActivityStreamReader reader = new ActivityStreamReader(paths.length, inOrder, lateness, new Random().nextLong(),
+                from, to);
+        try {
+            for (int i = 0; i < paths.length; i++) {
+                reader.files[i] = new MappedLineReader(paths[i], types[i], i, split, numSplits, blockSize, offsets[i]);
+            }
+            reader.start();
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    private ActivityStreamReader(int numFiles, boolean inOrder, int lateness, long seed, long from, long to) {
+        this.inOrder = inOrder;
+        this.lateness = lateness;
+        this.seed = seed;
+        this.from = from;
+        this.to = to;
+        this.files = new LineReader[numFiles];
+        this.heads = new PriorityQueue<>(Math.max(1, numFiles));
+        this.groupOffsets = new long[numFiles];
+    }
+
+    // the offset of each file to read from for the given start of a range, 0 for the whole file
+    private static long[] offsetsBefore(String[] paths, long from) throws IOException {
+        long[] offsets = new long[paths.length];
+        if (from != Long.MIN_VALUE) {
+            for (int i = 0; i < paths.length; i++) {
+                offsets[i] = StreamIndex.forFile(paths[i]).offsetBefore(from);
+            }
+        }
+        return offsets;
+    }
+
+    private void start() throws IOException {
+        for (LineReader file : files) {
+            if (advance(file)) {
+                heads.add(file);
+            }
+        }
+    }
+
+    /**
+     * Whether more activities follow, the files are closed once it returns false.
+     */
+    @Override
+    public boolean hasNext() {
+        fill();
+        skipSent();
+        if (reorderBuffer.isEmpty()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The output timestamp of the next group of activities.
+     */
+    public long peekTimestamp() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return reorderBuffer.peek().outputTimestamp;
+    }
+
+    /**
+     * All activities with the next output timestamp, as an entry of that timestamp to the activities.
+     */
+    @Override
+    public Map.Entry<Long, List<Activity>> next() {
+        long timestamp = peekTimestamp();
+        List<Activity> activities = new ArrayList<>();
+        while (!reorderBuffer.isEmpty() && reorderBuffer.peek().outputTimestamp == timestamp) {
+            activities.add(poll().activity);
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(timestamp, activities);
+    }
+
+    /**
+     * A checkpoint to resume from once the activities returned so far are sent, up to sentAtTimestamp of the
+     * ones with the given output timestamp, which must be the one of the last group returned. Each file is
+     * resumed at its lowest offset that still has an activity at or after that output timestamp. Only for
+     * readers of whole files, not for splits.
+     */
+    public ReplayCheckpoint checkpoint(long timestamp, long sentAtTimestamp) {
+        long[] offsets = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            LineReader file = files[i];
+            offsets[i] = file.activity != null ? file.activityOffset : file.nextOffset();
+            if (groupTimestamp == timestamp) {
+                offsets[i] = Math.min(offsets[i], groupOffsets[i]);
+            }
+        }
+        for (Delayed delayed : reorderBuffer) {
+            offsets[delayed.file] = Math.min(offsets[delayed.file], delayed.offset);
+        }
+        return new ReplayCheckpoint(offsets, seed, timestamp, sentAtTimestamp);
+    }
+
+    private Delayed poll() {
+        Delayed delayed = reorderBuffer.poll();
+        if (delayed.outputTimestamp != groupTimestamp) {
+            groupTimestamp = delayed.outputTimestamp;
+            Arrays.fill(groupOffsets, Long.MAX_VALUE);
+        }
+        groupOffsets[delayed.file] = Math.min(groupOffsets[delayed.file], delayed.offset);
+        return delayed;
+    }
+
+    // drops the activities that were sent before the checkpoint this reader resumes from. They are the ones
+    // before the checkpointed output timestamp, and the first ones at it, since the order does not depend on
+    // where the files are read from.
+    private void skipSent() {
+        while (resumeTimestamp != Long.MIN_VALUE) {
+            if (reorderBuffer.isEmpty() || reorderBuffer.peek().outputTimestamp > resumeTimestamp
+                    || (reorderBuffer.peek().outputTimestamp == resumeTimestamp && resumeSentAtTimestamp == 0)) {
+                resumeTimestamp = Long.MIN_VALUE;
+                return;
+            }
+            if (poll().outputTimestamp == resumeTimestamp) {
+                resumeSentAtTimestamp--;
+            }
+            fill();
+        }
+    }
+
+    // reads input until the head of the reorder buffer is complete, i.e. the input has moved past its timestamp
+    private void fill() {
+        try {
+            while (!heads.isEmpty() && (reorderBuffer.isEmpty()
+                    || reorderBuffer.peek().outputTimestamp >= heads.peek().activity.getCreationTimestamp())) {
+                LineReader file = heads.poll();
+                Activity activity = file.activity;
+                long outputTimestamp = activity.getCreationTimestamp();
+                if (!inOrder) {
+                    outputTimestamp += latenessOf(file.index, file.activityOffset);
+                }
+                reorderBuffer.add(new Delayed(outputTimestamp, file.index, file.activityOffset, activity));
+                if (advance(file)) {
+                    heads.add(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // uniform below lateness, from a SplitMix64 hash of the seed and the line
+    private int latenessOf(int file, long offset) {
+        long z = seed + file * 0x9E3779B97F4A7C15L + offset * 0xD1B54A32D192ED03L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (int) Math.floorMod(z, (long) lateness);
+    }
+
+    // parses the next activity of the file, skipping lines that are not activities or are created before the
+    // range, and ending the file at the first one created after it
+    private boolean advance(LineReader file) throws IOException {
+        while (file.readLine()) {
+            if (file.length == 0) {
+                continue;
+            }
+            Activity activity = parser.parse(file.type, file.line, 0, file.length);
+            if (activity != null && activity.getCreationTimestamp() >= to) {
+                break;
+            }
+            if (activity != null && activity.getCreationTimestamp() >= from) {
+                file.activity = activity;
+                file.activityOffset = file.lineOffset;
+                return true;
+            }
+        }
+        file.activity = null;
+        file.close();
+        return false;
+    }
+
+    @Override
+    public void close() {
+        for (LineReader file : files) {
+            if (file != null) {
+                file.close();
+            }
+        }
+        heads.clear();
+    }
+
+    // ties are broken in the order of the merge, which does not depend on where the files are read from
+    private static final class Delayed implements Comparable<Delayed> {
+        final long outputTimestamp;
+        final int file;
+        final long offset;
+        final Activity activity;
+
+        Delayed(long outputTimestamp, int file, long offset, Activity activity) {
+            this.outputTimestamp = outputTimestamp;
+            this.file = file;
+            this.offset = offset;
+            this.activity = activity;
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            int c = Long.compare(outputTimestamp, other.outputTimestamp);
+            if (c == 0) {
+                c = Long.compare(activity.getCreationTimestamp(), other.activity.getCreationTimestamp());
+            }
+            if (c == 0) {
+                c = Integer.compare(file, other.file);
+            }
+            return c != 0 ? c : Long.compare(offset, other.offset);
+        }
+    }
+
+    /**
+     * Reads the lines of a file as bytes into a reused buffer, and holds the file's next activity for the merge.
+     */
+    private abstract static class LineReader implements Comparable<LineReader> {
+        final char type;
+        final int index;
+        byte[] line = new byte[1024];
+        int length;
+        long lineOffset;  // of the line last read
+        Activity activity;
+        long activityOffset;  // of the line of activity
+
+        LineReader(char type, int index) {
+            this.type = type;
+            this.index = index;
+        }
+
+        /**
+         * Reads the next line into line and length, without the line terminator, or returns false at the end.
+         */
+        abstract boolean readLine() throws IOException;
+
+        /**
+         * The offset of the line readLine reads next, the file size at the end.
+         */
+        abstract long nextOffset();
+
+        abstract void close();
+
+        void ensureLineCapacity(int capacity) {
+            if (capacity > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, capacity));
+            }
+        }
+
+        @Override
+        public int compareTo(LineReader other) {
+            int c = Long.compare(activity.getCreationTimestamp(), other.activity.getCreationTimestamp());
+            return c != 0 ? c : Integer.compare(index, other.index);
+        }
+    }
+
+    private static final class StreamLineReader extends LineReader {
+        private InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private long bufferOffset;
+        private int position, limit;
+
+        StreamLineReader(String path, char type, int index, long offset) throws IOException {
+            super(type, index);
+            FileInputStream in = new FileInputStream(path);
+            in.getChannel().position(offset);
+            this.in = in;
+            this.bufferOffset = offset;
+        }
+
+        @Override
+        boolean readLine() throws IOException {
+            length = 0;
+            lineOffset = nextOffset();
+            while (in != null) {
+                if (position == limit) {
+                    bufferOffset += limit;
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        close();
+                        break;
+                    }
+                }
+                int end = position;
+                while (end < limit && buffer[end] != '\n') {
+                    end++;
+                }
+                ensureLineCapacity(length + end - position);
+                System.arraycopy(buffer, position, line, length, end - position);
+                length += end - position;
+                if (end < limit) {
+                    position = end + 1;
+                    return true;
+                }
+                position = limit;
+            }
+            return length > 0;
+        }
+
+        @Override
+        long nextOffset() {
+            return bufferOffset + position;
+        }
+
+        @Override
+        void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // nothing left to read
+                }
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the lines that begin in every stride-th block of a memory-mapped file. The file is mapped through a
+     * window of about one block, which is moved when a line runs past it, so files of any size can be read.
+     */
+    private static final class MappedLineReader extends LineReader {
+        private static final int WINDOW_SLACK = 1 << 16;
+
+        private FileChannel channel;
+        private final long size;
+        private final int blockSize;
+        private final long stride;
+        private long blockStart;
+        private long position;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        /**
+         * @param offset the start of a line to read from, blocks that end before it are skipped, 0 for the whole file
+         */
+        MappedLineReader(String path, char type, int index, int split, int numSplits, int blockSize, long offset)
+                throws IOException {
+            super(type, index);
+            this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            this.size = channel.size();
+            this.blockSize = blockSize;
+            this.stride = (long) blockSize * numSplits;
+            this.blockStart = (long) split * blockSize;
+            while (blockStart + blockSize <= offset) {
+                blockStart += stride;
+            }
+            if (blockStart == 0 && offset == 0) {
+                readLine();  // avoid header
+            } else {
+                position = lineStart(Math.max(blockStart, offset));
+            }
+        }
+
+        @Override
+        boolean readLine() throws IOException {
+            length = 0;
+            while (channel != null) {
+                if (position < blockStart + blockSize && position < size) {
+                    readLineAt(position);
+                    return true;
+                }
+                blockStart += stride;
+                if (blockStart >= size) {
+                    close();
+                    break;
+                }
+                position = lineStart(blockStart);
+            }
+            return false;
+        }
+
+        // the first line that begins at or after the given offset
+        private long lineStart(long offset) throws IOException {
+            long start = offset;
+            while (start < size && byteAt(start - 1) != '\n') {
+                start++;
+            }
+            return start;
+        }
+
+        @Override
+        long nextOffset() {
+            return position;
+        }
+
+        // copies the line beginning at the offset, which may run into the following blocks
+        private void readLineAt(long offset) throws IOException {
+            lineOffset = offset;
+            position = offset;
+            while (position < size) {
+                map(position);
+                int from = (int) (position - windowStart);
+                int end = from;
+                int limit = window.limit();
+                while (end < limit && window.get(end) != '\n') {
+                    end++;
+                }
+                ensureLineCapacity(length + end - from);
+                window.position(from);
+                window.get(line, length, end - from);
+                length += end - from;
+                position += end - from;
+                if (end < limit) {
+                    position++;
+                    return;
+                }
+            }
+        }
+
+        private byte byteAt(long offset) throws IOException {
+            map(offset);
+            return window.get((int) (offset - windowStart));
+        }
+
+        // moves the window so that it covers the offset
+        private void map(long offset) throws IOException {
+            if (window == null || offset < windowStart || offset >= windowStart + window.limit()) {
+                windowStart = offset;
+                long windowSize = Math.min((long) blockSize + WINDOW_SLACK, Integer.MAX_VALUE);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, size - offset));
+            }
+        }
+
+        @Override
+        void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // nothing left to read
+                }
+                channel = null;
+                window = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package socialnetwork.util;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.java.typeutils.TypeExtractionUtils;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Type information for Activity and its subclasses, so that Flink uses the ActivitySerializer instead of
+ * treating them as generic types and falling back to Kryo. It is picked up through the @TypeInfo annotation
+ * on Activity, which the type extractor also applies to the subclasses.
+ */
+public class ActivityTypeInfo<T extends Activity> extends TypeInformation<T> {
+    private static final long serialVersionUID = 1L;
+
+    private final Class<T> typeClass;
+
+    public ActivityTypeInfo(Class<T> typeClass) {
+        this.typeClass = typeClass;
+    }
+
+    @Override
+    public boolean isBasicType() {
+        return false;
+    }
+
+    @Override
+    public boolean isTupleType() {
+        return false;
+    }
+
+    @Override
+    public int getArity() {
+        return 1;
+    }
+
+    @Override
+    public int getTotalFields() {
+        return 1;
+    }
+
+    @Override
+    public Class<T> getTypeClass() {
+        return typeClass;
+    }
+
+    @Override
+    public boolean isKeyType() {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public TypeSerializer<T> createSerializer(ExecutionConfig config) {
+        // the serializer writes the concrete type tag, so the same instance works for every subclass
+        return (TypeSerializer<T>) new ActivitySerializer();
+    }
+
+    @Override
+    public String toString() {
+        return "ActivityTypeInfo<" + typeClass.getSimpleName() + ">";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ActivityTypeInfo
+                && ((ActivityTypeInfo<?>) obj).canEqual(this)
+                && typeClass == ((ActivityTypeInfo<?>) obj).typeClass;
+    }
+
+    @Override
+    public int hashCode() {
+        return typeClass.hashCode();
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj instanceof ActivityTypeInfo;
+    }
+
+    public static class Factory extends TypeInfoFactory<Activity> {
+        @Override
+        @SuppressWarnings("unchecked")
+        public TypeInformation<Activity> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new ActivityTypeInfo<>((Class<Activity>) TypeExtractionUtils.typeToClass(t));
+        }
+    }
+}
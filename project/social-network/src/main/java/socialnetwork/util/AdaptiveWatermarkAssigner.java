@@ -0,0 +1,122 @@
+package socialnetwork.util;
+
+import org.apache.flink.api.common.functions.AbstractRichFunction;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.streaming.api.functions.AssignerWithPeriodicWatermarks;
+import org.apache.flink.streaming.api.watermark.Watermark;
+import org.apache.flink.streaming.api.windowing.time.Time;
+
+/**
+ * Periodic watermarks that trail the highest creation timestamp seen by a bound that follows the observed
+ * disorder, instead of the fixed worst case of BoundedOutOfOrdernessTimestampExtractor.
+ *
+ * The lateness of an activity is how far its timestamp is behind the highest one seen before it. The bound is a
+ * high percentile of the lateness of the last windowSize activities, kept in a histogram of numBuckets buckets
+ * between 0 and maxBound, and clamped to [minBound, maxBound]. It starts at maxBound until the window is full
+ * enough. A wider bound does not move the watermark back, it only holds it until the timestamps catch up.
+ *
+ * Each parallel instance tracks the activities of its own input, so when chained to a Kafka source subtask that
+ * reads a single partition, the bound is per partition. The current bound is exposed as the outOfOrdernessBound
+ * gauge, activities behind the watermark are counted in lateRecords.
+ */
+public class AdaptiveWatermarkAssigner extends AbstractRichFunction implements AssignerWithPeriodicWatermarks<Activity> {
+    private static final int NUM_BUCKETS = 256;
+
+    private final long minBound;
+    private final long maxBound;
+    private final double percentile;
+    private final int windowSize;
+
+    private transient long[] window;
+    private transient int[] buckets;
+    private transient int position, size;
+    private transient long bucketWidth;
+    private transient long bound;
+    private transient long maxTimestamp;
+    private transient long lastWatermark;
+    private transient Counter lateRecords;
+
+    /**
+     * @param percentile share of the activities that the bound should cover, e.g. 0.999
+     * @param windowSize number of recent activities the percentile is taken over
+     */
+    public AdaptiveWatermarkAssigner(Time minBound, Time maxBound, double percentile, int windowSize) {
+        this.minBound = minBound.toMilliseconds();
+        this.maxBound = maxBound.toMilliseconds();
+        this.percentile = percentile;
+        this.windowSize = windowSize;
+        if (this.minBound < 0 || this.minBound > this.maxBound) {
+            throw new IllegalArgumentException(String.format("Invalid bounds [%d, %d] ms", this.minBound, this.maxBound));
+        }
+    }
+
+    @Override
+    public void open(Configuration parameters) {
+        window = new long[windowSize];
+        buckets = new int[NUM_BUCKETS];
+        bucketWidth = Math.max(1, (maxBound + NUM_BUCKETS - 1) / NUM_BUCKETS);
+        bound = maxBound;
+        maxTimestamp = Long.MIN_VALUE;
+        lastWatermark = Long.MIN_VALUE;
+        getRuntimeContext().getMetricGroup().gauge("outOfOrdernessBound", (Gauge<Long>) () -> bound);
+        lateRecords = getRuntimeContext().getMetricGroup().counter("lateRecords");
+    }
+
+    @Override
+    public long extractTimestamp(Activity activity, long previousElementTimestamp) {
+        long timestamp = activity.getCreationTimestamp();
+        if (timestamp <= lastWatermark) {
+            lateRecords.inc();
+        }
+        if (maxTimestamp == Long.MIN_VALUE || timestamp > maxTimestamp) {
+            maxTimestamp = timestamp;
+            record(0);
+        } else {
+            record(maxTimestamp - timestamp);
+        }
+        return timestamp;
+    }
+
+    private void record(long lateness) {
+        if (size == windowSize) {
+            buckets[bucketOf(window[position])]--;
+        } else {
+            size++;
+        }
+        window[position] = lateness;
+        buckets[bucketOf(lateness)]++;
+        position = (position + 1) % windowSize;
+    }
+
+    private int bucketOf(long lateness) {
+        return (int) Math.min(NUM_BUCKETS - 1, lateness / bucketWidth);
+    }
+
+    @Override
+    public Watermark getCurrentWatermark() {
+        if (maxTimestamp == Long.MIN_VALUE) {
+            return new Watermark(lastWatermark);
+        }
+        // too few activities for the percentile, stay with the widest bound
+        if (size >= Math.max(1, windowSize / 10)) {
+            bound = Math.max(minBound, Math.min(maxBound, percentileBound()));
+        }
+        lastWatermark = Math.max(lastWatermark, maxTimestamp - bound - 1);
+        return new Watermark(lastWatermark);
+    }
+
+    // the upper edge of the bucket that holds the percentile
+    private long percentileBound() {
+        long needed = (long) Math.ceil(percentile * size);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= needed) {
+                return (i + 1) * bucketWidth;
+            }
+        }
+        return maxBound;
+    }
+}
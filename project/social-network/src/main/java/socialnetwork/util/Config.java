@@ -3,6 +3,9 @@ package socialnetwork.util;
 import org.apache.flink.streaming.api.windowing.time.Time;
 import org.apache.flink.util.OutputTag;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 public class Config {
     // Useful constants
     public static final long SECOND = 1000;
@@ -15,6 +18,7 @@ public class Config {
     public final static String KAFKA_GROUP = "test-consumer-group";
     public static final int numKafkaPartitions = 3;
     public final static String allActivitiesTopic = numKafkaPartitions > 1 ? "all-multiple" : "all-single";
+    public static final boolean usePerTypeTopics = false;  // one topic per activity type instead of allActivitiesTopic
     // producer
     public static final boolean use1KFiles = false;
     public static final String Likes_1K = "data/1k-users-cleaned/streams/likes_event_stream.csv";
@@ -33,8 +37,72 @@ public class Config {
 
     public static final boolean useSpeedupFactor = false;
     public static final int speedupFactor = 900000;
+    public static final int replayRecordsPerSecond = 0;  // if positive, replay at this fixed rate instead
+    public static final int replayBurst = 100;  // max records sent at once when replaying at a fixed rate
     public static final boolean produceInOrder = false;
     public final static Time outOfOrdernessBound = Time.minutes(30);
+    public static final boolean useAdaptiveWatermarks = false;  // adapt the watermark bound to the observed disorder, see AdaptiveWatermarkAssigner
+    public final static Time minOutOfOrdernessBound = Time.minutes(1);  // the adaptive bound stays between this and outOfOrdernessBound
+    public static final double outOfOrdernessPercentile = 0.999;  // share of the activities the adaptive bound covers
+    public static final int outOfOrdernessWindow = 10000;  // recent activities of a partition the adaptive bound is taken over
+    public static final boolean useBinaryFormat = false;  // ActivityBinaryFormat instead of the text of Activity.toString()
+    public static final boolean useEnvelopes = false;  // pack activities into LZ4-compressed ActivityEnvelopes
+    public static final int envelopeSize = 500;  // max activities per envelope
+    public static final long envelopeTimeSlice = MINUTE;  // max event time between the first and last activity of an envelope
+    public static final boolean useAsyncSend = true;  // pipeline the sends instead of waiting for every acknowledgement
+    public static final int producerMaxInFlight = 10000;  // max records sent but not acknowledged yet
+    public static final int producerLingerMs = 5;
+    public static final int producerBatchSize = 64 * 1024;
+    public static final String producerCompressionType = "none";  // none, gzip, snappy or lz4
+    public static final boolean useParallelProducer = false;  // one sender thread per partition of allActivitiesTopic
+    public static final int producerQueueCapacity = 10000;  // activities queued for each sender thread
+    public static final boolean useKeyPartitioning = false;  // partition by Activity.getKey() the way Flink would, see KeyPartitioner
+    public static final boolean produceGenerated = false;  // send ActivityGenerator output instead of the cleaned stream files
+    public static final boolean checkpointProducer = true;  // resume an interrupted replay of the cleaned stream files, at least once, see ReplayCheckpoint. Not with useParallelProducer
+    public static final String producerCheckpointFile = "log/producer-checkpoint.properties";  // deleted once the replay is complete
+    public static final long producerCheckpointInterval = 10 * SECOND;  // wall-clock time between replay checkpoints, the activities sent since the last one are sent again on resume
+    public static final String replayFrom = "";  // replay the activities created from e.g. "2012-02-02T06:00:00Z" on, empty for the start
+    public static final String replayTo = "";  // and before this creation date, empty for the end. Also for FileReplaySource and the evaluators
+    public static final int streamIndexInterval = 1 << 20;  // bytes of a stream file between the entries of its StreamIndex
+
+    // generator, see ActivityGenerator
+    public static final long generatorActivities = 100000000;  // 0 for no limit
+    public static final double generatorActivitiesPerSecond = 100;  // average activities per second of event time
+    public static final int generatorPersons = 100000;
+    public static final double generatorPersonSkew = 1.0;  // Zipf exponent of the activities per person
+    public static final int generatorActivePosts = 10000;  // most recent posts that get comments and likes
+    public static final double generatorPostSkew = 1.0;  // Zipf exponent over the recency of the active posts
+    public static final int generatorActiveComments = 100000;  // most recent comments and replies that get replies
+    public static final double generatorCommentSkew = 1.0;
+    public static final double generatorPostShare = 0.1;
+    public static final double generatorCommentShare = 0.3;
+    public static final double generatorReplyShare = 0.3;
+    public static final double generatorLikeShare = 0.3;
+    public static final int generatorMaxReplyDepth = 8;  // comments to a post have depth 1
+    public static final int generatorMaxReplies = 4;  // max replies to one comment or reply
+    public static final int generatorLateness = (int) (10 * MINUTE);  // exclusive upper bound of the lateness, 0 to generate in order
+    public static final double generatorLateShare = 0.5;  // share of the activities that are late
+    public static final long generatorSeed = 42;
+
+    /**
+     * The topic of the activities of the given type, e.g. "all-multiple-comment".
+     */
+    public static String getActivityTopic(Activity.ActivityType type) {
+        return usePerTypeTopics ? allActivitiesTopic + "-" + type.name().toLowerCase() : allActivitiesTopic;
+    }
+
+    /**
+     * The topics that hold activities, each gets its own tombstones.
+     */
+    public static Set<String> getActivityTopics() {
+        Set<String> topics = new LinkedHashSet<>();
+        for (Activity.ActivityType type : Activity.ActivityType.values()) {
+            if (type != Activity.ActivityType.Tombstone) {
+                topics.add(getActivityTopic(type));
+            }
+        }
+        return topics;
+    }
 
     public static String[] getStreamCleanedInputFiles() {
         return use1KFiles ?
@@ -42,6 +110,20 @@ public class Config {
                 new String[] {Comments_10K, Likes_10K, Posts_10K};
     }
 
+    /**
+     * The start of the replayFrom range in epoch millis, Long.MIN_VALUE for the start of the streams.
+     */
+    public static long getReplayFrom() {
+        return replayFrom.isEmpty() ? Long.MIN_VALUE : TimestampCodec.parse(replayFrom);
+    }
+
+    /**
+     * The exclusive end of the replayTo range in epoch millis, Long.MAX_VALUE for the end of the streams.
+     */
+    public static long getReplayTo() {
+        return replayTo.isEmpty() ? Long.MAX_VALUE : TimestampCodec.parse(replayTo);
+    }
+
     public static String[] getStreamRawInputFiles() {
         return use1KFiles ?
                 new String[] {COMMENTS_1K_RAW, LIKES_1K_RAW, POSTS_1K_RAW} :
@@ -55,6 +137,31 @@ public class Config {
     // Flink config
     public final static boolean useLocalEnvironmentWithWebUI = true;  // setting to true sets up the dashboard at http://localhost:8081/
     public final static int flinkParallelism = 4;
+    public final static int flinkMaxParallelism = 128;  // number of key groups, must match between the Producer and the job
+    public final static boolean validateKeyPartitioning = true;  // check that the key-partitioned topic matches Flink's key assignment
+    public final static long partitionIdleTimeout = 0;  // wall-clock time without records after which a Kafka source subtask is idle, 0 to never. Longer than the Producer ever pauses a partition, the records it sends after that are late
+    public final static boolean useFileSource = false;  // read the cleaned stream files with FileReplaySource instead of Kafka
+    public final static int fileSourceBlockSize = 4 << 20;  // bytes of each file a source subtask reads before the next one's turn
+    public final static boolean trackLatency = true;  // stamp send times and record end-to-end latencies in front of the sinks, see LatencyRecorder
+    public final static boolean useGeneratorSource = false;  // generate activities with GeneratorSource instead of reading Kafka
+    public final static int generatorSourceRecordsPerSecond = 0;  // total rate of all GeneratorSource subtasks, 0 for as fast as possible
+    public final static boolean startFromCommittedOffsets = false;  // resume the Kafka sources from the offsets committed on checkpoints instead of the earliest
+    public final static long checkpointInterval = MINUTE;  // between the Flink checkpoints taken when startFromCommittedOffsets is set
+    public final static String checkpointDirectory = "file:///tmp/social-network-checkpoints";  // retained when the job is cancelled
+    // shuffles and state carry ActivityDictionary codes instead of strings, the codes are only valid within one JVM,
+    // so only for local jobs without checkpoints
+    public final static boolean useDictionaryEncoding = false;
+    public final static String mappingStore = "memcached";  // memcached, state or union-find, see MappingStore. state writes all mappings in one subtask, it is a reference, not for performance
+    public final static int nearCacheSize = 10000;  // post ids cached per subtask in front of memcached, see TinyLfuCache, 0 to disable
+    public final static boolean batchLookups = false;  // follow the chains of many replies at once with one memcached getBulk per level, pays off with a remote memcached
+    public final static int lookupBatchSize = 200;  // chains after which a batch is looked up
+    public final static long lookupBatchInterval = 2;  // ms after which a batch is looked up anyway
+    public final static boolean useAsyncResolver = true;  // resolve post ids with async MappingStore lookups, see PostIdResolver.AsyncMappingResolver
+    public final static boolean asyncResolverOrdered = false;  // keep the order of the activities, not only of the watermarks
+    public final static int asyncResolverCapacity = 1000;  // activities in flight per subtask
+    public final static int asyncResolverRetries = 3;  // of a failed mapping store operation before the job fails
+    public final static long asyncResolverTimeout = 30 * SECOND;  // of an activity including its retries, after which the job fails
+    public final static long releaseTimeout = 5 * SECOND;  // wall-clock time a reply released by the MappingResolver may take back to it, see PostIdResolver.KeepAlive
     public final static OutputTag<String> mappingOutputTag = new OutputTag<String>("mapping-output"){};
     public final static String mappingOutputFilename = "log/actual_mappings.txt";
     public final static OutputTag<String> errorOutputTag = new OutputTag<String>("error-output"){};
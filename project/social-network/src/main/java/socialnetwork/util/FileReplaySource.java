@@ -0,0 +1,124 @@
+package socialnetwork.util;
+
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.streaming.api.functions.source.RichParallelSourceFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replays the cleaned stream files straight into the job, without ZooKeeper and Kafka, e.g. for benchmarks and
+ * backfills. The activities are the ones the Producer would send, delayed by the same random lateness.
+ *
+ * Every subtask memory-maps the files and reads its split of them, see ActivityStreamReader.forSplit. The splits
+ * alternate in blocks, so the subtasks stay close in event time and the downstream watermarks do not hold back
+ * much state. A subtask finishes once its split is read, which emits the final watermark, like the tombstone at
+ * the end of each Kafka partition.
+ */
+public class FileReplaySource extends RichParallelSourceFunction<Activity> {
+    private static final Logger logger = LoggerFactory.getLogger("SocialNetwork");
+
+    private final String[] paths;
+    private final char[] types;
+    private final Set<Activity.Field> requiredFields;
+    private final boolean inOrder;
+    private final int lateness;
+    private final int blockSize;
+    private final long from, to;
+    private volatile boolean running = true;
+
+    /**
+     * @param paths          stream files without type prefix in their lines, each with a header line
+     * @param types          the type prefix (e.g. 'C') of the activities in each file
+     * @param requiredFields wide activity fields to keep, all others are dropped in the source
+     * @param inOrder        whether to replay by creation timestamp, or delayed by a random lateness
+     * @param lateness       exclusive upper bound of the random lateness in milliseconds
+     * @param blockSize      bytes of each file a subtask reads before the next subtask's turn
+     * @param from           replay the activities created at or after this, Long.MIN_VALUE for all
+     * @param to             and before this, Long.MAX_VALUE for all
+     */
+    public FileReplaySource(String[] paths, char[] types, Set<Activity.Field> requiredFields,
+                            boolean inOrder, int lateness, int blockSize, long from, long to) {
+        this.paths = paths;
+        this.types = types;
+        this.requiredFields = EnumSet.copyOf(requiredFields);
+        this.inOrder = inOrder;
+        this.lateness = lateness;
+        this.blockSize = blockSize;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Replays the files of Config.getStreamCleanedInputFiles that hold any of the required types, over the range of
+     * Config.getReplayFrom and Config.getReplayTo, like the Producer does.
+     */
+    public static FileReplaySource forCleanedStreams(Set<Activity.ActivityType> requiredTypes,
+                                                     Set<Activity.Field> requiredFields) {
+        String[] files = Config.getStreamCleanedInputFiles();
+        String[] prefixs = Config.getStreamPrefixs();
+        List<String> paths = new ArrayList<>();
+        StringBuilder types = new StringBuilder();
+        for (int i = 0; i < files.length; i++) {
+            char type = prefixs[i].charAt(0);
+            if (holdsAny(type, requiredTypes)) {
+                paths.add(files[i]);
+                types.append(type);
+            }
+        }
+        return new FileReplaySource(paths.toArray(new String[0]), types.toString().toCharArray(), requiredFields,
+                Config.produceInOrder, (int) Config.outOfOrdernessBound.toMilliseconds(), Config.fileSourceBlockSize,
+                Config.getReplayFrom(), Config.getReplayTo());
+    }
+
+    // the comment file holds both comments and replies
+    private static boolean holdsAny(char type, Set<Activity.ActivityType> requiredTypes) {
+        switch (type) {
+            case 'C':
+                return requiredTypes.contains(Activity.ActivityType.Comment)
+                        || requiredTypes.contains(Activity.ActivityType.Reply);
+            case 'L':
+                return requiredTypes.contains(Activity.ActivityType.Like);
+            case 'P':
+                return requiredTypes.contains(Activity.ActivityType.Post);
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public void run(SourceContext<Activity> ctx) throws Exception {
+        RuntimeContext context = getRuntimeContext();
+        int subtask = context.getIndexOfThisSubtask();
+        long activities = 0;
+        try (ActivityStreamReader reader = ActivityStreamReader.forSplit(paths, types, subtask,
+                context.getNumberOfParallelSubtasks(), blockSize, inOrder, lateness, from, to)) {
+            while (running && reader.hasNext()) {
+                Map.Entry<Long, List<Activity>> entry = reader.next();
+                synchronized (ctx.getCheckpointLock()) {
+                    for (Activity activity : entry.getValue()) {
+                        if (requiredFields.size() < Activity.Field.values().length) {
+                            activity.retainFields(requiredFields);
+                        }
+                        if (Config.trackLatency) {
+                            activity.setSendTime(System.currentTimeMillis());
+                        }
+                        ctx.collect(activity);
+                        activities++;
+                    }
+                }
+            }
+        }
+        logger.info("File source {} replayed {} activities", subtask, activities);
+    }
+
+    @Override
+    public void cancel() {
+        running = false;
+    }
+}
@@ -0,0 +1,176 @@
+package socialnetwork.util;
+
+import org.apache.flink.api.common.serialization.DeserializationSchema;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.streaming.api.operators.StreamingRuntimeContext;
+import org.apache.flink.streaming.api.watermark.Watermark;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer011;
+import org.apache.flink.streaming.connectors.kafka.KafkaDeserializationSchema;
+import org.apache.flink.streaming.connectors.kafka.internals.KafkaTopicPartition;
+import org.apache.flink.streaming.connectors.kafka.internals.KafkaTopicPartitionAssigner;
+import org.apache.flink.streaming.runtime.tasks.ProcessingTimeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Kafka consumer that marks its subtask idle when it has not emitted a record for idleTimeout milliseconds of
+ * wall-clock time, e.g. because its partition ran dry or the producer stopped sending to it. Downstream operators
+ * then leave the subtask out of their watermark until it emits again, so the job-wide watermark keeps advancing
+ * with the other partitions. Records of a partition that resumes behind the job-wide watermark are late, so the
+ * timeout has to be longer than the producer ever pauses a partition, e.g. while the Producer paces a replay.
+ *
+ * Each subtask reports the partitions it reads (metric group "partitions") with the gauges
+ * - partitionWatermark, the last watermark it emitted, if the watermarks are assigned in the consumer
+ * - watermarkLag, how far that watermark is behind the highest timestamp it emitted
+ * - millisSinceLastRecord and idle (1 if idle), and the counter idlePeriods
+ * so the partition holding the job back is the one with the lowest partitionWatermark.
+ */
+public class IdleAwareKafkaConsumer<T> extends FlinkKafkaConsumer011<T> {
+    private static final Logger logger = LoggerFactory.getLogger("SocialNetwork");
+
+    private final String topic;
+    private final int numPartitions;
+    private final long idleTimeout;
+
+    /**
+     * @param numPartitions number of partitions of the topic, only used to report them
+     * @param idleTimeout   wall-clock milliseconds without records after which the subtask is idle, 0 to never
+     */
+    public IdleAwareKafkaConsumer(String topic, DeserializationSchema<T> deserializer, Properties props,
+                                  int numPartitions, long idleTimeout) {
+        super(topic, deserializer, props);
+        this.topic = topic;
+        this.numPartitions = numPartitions;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param deserializer a deserializer that also reads the record headers, e.g. SendTimeHeader.Deserializer
+     */
+    public IdleAwareKafkaConsumer(String topic, KafkaDeserializationSchema<T> deserializer, Properties props,
+                                  int numPartitions, long idleTimeout) {
+        super(topic, deserializer, props);
+        this.topic = topic;
+        this.numPartitions = numPartitions;
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Override
+    public void run(SourceContext<T> sourceContext) throws Exception {
+        StreamingRuntimeContext context = (StreamingRuntimeContext) getRuntimeContext();
+        String partitions = getPartitions(context.getIndexOfThisSubtask(), context.getNumberOfParallelSubtasks());
+        IdleDetectingContext ctx = new IdleDetectingContext(sourceContext, partitions,
+                context.getMetricGroup().addGroup("partitions", partitions));
+        ScheduledFuture<?> idleCheck = null;
+        if (idleTimeout > 0) {
+            ProcessingTimeService timeService = context.getProcessingTimeService();
+            long period = Math.max(1, idleTimeout / 2);
+            idleCheck = timeService.scheduleAtFixedRate(ctx::checkIdle, period, period);
+        }
+        try {
+            super.run(ctx);
+        } finally {
+            if (idleCheck != null) {
+                idleCheck.cancel(false);
+            }
+        }
+    }
+
+    // the partitions the Kafka source assigns to the subtask, see KafkaTopicPartitionAssigner
+    private String getPartitions(int subtask, int parallelism) {
+        List<String> partitions = new ArrayList<>();
+        for (int partition = 0; partition < numPartitions; partition++) {
+            if (KafkaTopicPartitionAssigner.assign(new KafkaTopicPartition(topic, partition), parallelism) == subtask) {
+                partitions.add(String.valueOf(partition));
+            }
+        }
+        return partitions.isEmpty() ? "none" : String.join("_", partitions);
+    }
+
+    /**
+     * Passes everything through to the source context, remembering when the last record was emitted. The
+     * context itself marks the subtask active again with the next record or watermark.
+     */
+    private class IdleDetectingContext implements SourceContext<T> {
+        private final SourceContext<T> ctx;
+        private final String partitions;
+        private final Counter idlePeriods;
+        private volatile long lastRecordTime = System.currentTimeMillis();
+        private volatile long maxTimestamp = Long.MIN_VALUE;
+        private volatile long watermark = Long.MIN_VALUE;
+        private volatile boolean idle;
+
+        IdleDetectingContext(SourceContext<T> ctx, String partitions, MetricGroup metrics) {
+            this.ctx = ctx;
+            this.partitions = partitions;
+            this.idlePeriods = metrics.counter("idlePeriods");
+            metrics.gauge("partitionWatermark", (Gauge<Long>) () -> watermark);
+            metrics.gauge("watermarkLag", (Gauge<Long>) () ->
+                    watermark == Long.MIN_VALUE || maxTimestamp == Long.MIN_VALUE ? 0 : maxTimestamp - watermark);
+            metrics.gauge("millisSinceLastRecord", (Gauge<Long>) () -> System.currentTimeMillis() - lastRecordTime);
+            metrics.gauge("idle", (Gauge<Integer>) () -> idle ? 1 : 0);
+        }
+
+        // called by the processing time service, holding the checkpoint lock
+        void checkIdle(long now) {
+            if (!idle && System.currentTimeMillis() - lastRecordTime >= idleTimeout) {
+                idle = true;
+                idlePeriods.inc();
+                logger.info("Kafka partitions {} of {} idle for {} ms, at watermark {}", partitions, topic,
+                        idleTimeout, watermark);
+                ctx.markAsTemporarilyIdle();
+            }
+        }
+
+        private void recordEmitted() {
+            lastRecordTime = System.currentTimeMillis();
+            if (idle) {
+                idle = false;
+                logger.info("Kafka partitions {} of {} active again", partitions, topic);
+            }
+        }
+
+        @Override
+        public void collect(T element) {
+            recordEmitted();
+            ctx.collect(element);
+        }
+
+        @Override
+        public void collectWithTimestamp(T element, long timestamp) {
+            recordEmitted();
+            if (timestamp > maxTimestamp) {
+                maxTimestamp = timestamp;
+            }
+            ctx.collectWithTimestamp(element, timestamp);
+        }
+
+        @Override
+        public void emitWatermark(Watermark mark) {
+            watermark = mark.getTimestamp();
+            ctx.emitWatermark(mark);
+        }
+
+        @Override
+        public void markAsTemporarilyIdle() {
+            ctx.markAsTemporarilyIdle();
+        }
+
+        @Override
+        public Object getCheckpointLock() {
+            return ctx.getCheckpointLock();
+        }
+
+        @Override
+        public void close() {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package socialnetwork.util;
+
+import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+import org.apache.flink.streaming.connectors.kafka.internals.KafkaTopicPartition;
+import org.apache.flink.streaming.connectors.kafka.internals.KafkaTopicPartitionAssigner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+
+/**
+ * Chooses the Kafka partition of an activity, such that the Kafka source subtask reading that partition is the
+ * subtask Flink itself would route the activity's key (Activity.getKey()) to. The stream read from such a topic
+ * is already partitioned by key, so it can be reinterpreted as a keyed stream without a network shuffle.
+ *
+ * The contract holds when the topic has numPartitions partitions, and the source and the first keyed operator
+ * run with parallelism numPartitions and max parallelism maxParallelism.
+ */
+public class KeyPartitioner implements Serializable {
+    private static final Logger logger = LoggerFactory.getLogger("SocialNetwork");
+
+    private final int maxParallelism;
+    private final int parallelism;
+    // the partition the Kafka source assigns to each subtask
+    private final int[] partitionOfSubtask;
+
+    public KeyPartitioner(String topic, int numPartitions, int maxParallelism) {
+        this.maxParallelism = maxParallelism;
+        this.parallelism = numPartitions;
+        this.partitionOfSubtask = new int[numPartitions];
+        for (int partition = 0; partition < numPartitions; partition++) {
+            int subtask = KafkaTopicPartitionAssigner.assign(new KafkaTopicPartition(topic, partition), numPartitions);
+            partitionOfSubtask[subtask] = partition;
+        }
+    }
+
+    public static KeyPartitioner forActivitiesTopic() {
+        return forTopic(Config.allActivitiesTopic);
+    }
+
+    public static KeyPartitioner forTopic(String topic) {
+        return new KeyPartitioner(topic, Config.numKafkaPartitions, Config.flinkMaxParallelism);
+    }
+
+    /**
+     * The subtask of a keyed operator with this partitioner's parallelism that processes the key.
+     */
+    public int subtaskOf(Integer key) {
+        return KeyGroupRangeAssignment.assignKeyToParallelOperator(key, maxParallelism, parallelism);
+    }
+
+    public int partitionOf(Activity activity) {
+        return partitionOfSubtask[subtaskOf(activity.getKey())];
+    }
+
+    /**
+     * The partition the Kafka source reads with the given subtask, it differs between topics.
+     */
+    public int partitionOfSubtask(int subtask) {
+        return partitionOfSubtask[subtask];
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Passes activities through, checking that each one arrives at the subtask its key is assigned to. A wrong
+     * parallelism fails the job, misrouted activities are counted in the keyPartitioningViolations metric and
+     * the first ones are logged.
+     */
+    public static class Validator extends RichMapFunction<Activity, Activity> {
+        private static final int LOGGED_VIOLATIONS = 10;
+        private final KeyPartitioner partitioner;
+        private transient Counter violations;
+        private transient int subtask;
+
+        public Validator(KeyPartitioner partitioner) {
+            this.partitioner = partitioner;
+        }
+
+        @Override
+        public void open(Configuration parameters) {
+            RuntimeContext context = getRuntimeContext();
+            if (context.getNumberOfParallelSubtasks() != partitioner.parallelism
+                    || context.getMaxNumberOfParallelSubtasks() != partitioner.maxParallelism) {
+                throw new IllegalStateException(String.format(
+                        "Key-partitioned topic needs parallelism %d and max parallelism %d, but got %d and %d",
+                        partitioner.parallelism, partitioner.maxParallelism,
+                        context.getNumberOfParallelSubtasks(), context.getMaxNumberOfParallelSubtasks()));
+            }
+            subtask = context.getIndexOfThisSubtask();
+            violations = context.getMetricGroup().counter("keyPartitioningViolations");
+        }
+
+        @Override
+        public Activity map(Activity activity) {
+            if (activity.getType() != Activity.ActivityType.Tombstone) {
+                int expected = partitioner.subtaskOf(activity.getKey());
+                if (expected != subtask) {
+                    violations.inc();
+                    if (violations.getCount() <= LOGGED_VIOLATIONS) {
+                        logger.error("Activity with key {} read by subtask {} instead of {}: {}",
+                                activity.getKey(), subtask, expected, activity);
+                    }
+                }
+            }
+            return activity;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package socialnetwork.util;
+
+import org.apache.flink.api.common.accumulators.Accumulator;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in milliseconds with log-linear buckets: exact below 128 ms, and above that 64 buckets
+ * per power of two, so every percentile is within 1.6% of the true value with at most a few thousand buckets.
+ *
+ * Histograms are mergeable by adding up their buckets. As a Flink accumulator, the histograms of all subtasks
+ * are merged into one per name, shown in the web UI and returned in the JobExecutionResult.
+ */
+public class LatencyHistogram implements Accumulator<Long, LatencyHistogram> {
+    private static final long serialVersionUID = 1L;
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private long[] counts = new long[SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * Records a latency, negative ones (from clock skew) as 0.
+     */
+    public void record(long latency) {
+        latency = Math.max(0, latency);
+        int index = indexOf(latency);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+        counts[index]++;
+        count++;
+        sum += latency;
+        max = Math.max(max, latency);
+    }
+
+    public void merge(LatencyHistogram other) {
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * The smallest recorded latency that at least the given share (e.g. 0.99) of the latencies is at or below,
+     * rounded down to its bucket, 0 if nothing was recorded.
+     */
+    public long getPercentile(double share) {
+        long rank = Math.max(1, (long) Math.ceil(share * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, lowestValueOf(i));
+            }
+        }
+        return max;
+    }
+
+    // below SUB_BUCKETS the value itself, above it the top SUB_BUCKET_BITS bits plus the shift
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long lowestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        return (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+    }
+
+    @Override
+    public void add(Long latency) {
+        record(latency);
+    }
+
+    @Override
+    public LatencyHistogram getLocalValue() {
+        return this;
+    }
+
+    @Override
+    public void resetLocal() {
+        counts = new long[SUB_BUCKETS];
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    @Override
+    public void merge(Accumulator<Long, LatencyHistogram> other) {
+        merge(other.getLocalValue());
+    }
+
+    @Override
+    public LatencyHistogram clone() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.merge(this);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d records, mean %.1f ms, p50 %d ms, p90 %d ms, p99 %d ms, p99.9 %d ms, max %d ms",
+                count, getMean(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getPercentile(0.999),
+                max);
+    }
+}
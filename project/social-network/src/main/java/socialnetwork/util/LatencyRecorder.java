@@ -0,0 +1,132 @@
+package socialnetwork.util;
+
+import org.apache.flink.api.common.JobExecutionResult;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.functions.ProcessFunction;
+import org.apache.flink.util.Collector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the end-to-end latency of the results written by a sink: the wall-clock time from when the newest
+ * activity a result depends on left the Producer (or entered the file or generator source) until the result
+ * reaches the sink. The send time is stamped by the Producer into a Kafka header, see SendTimeHeader, and carried
+ * along with Activity.getSendTime, and by the tasks into their windowed results as the maximum over the window.
+ *
+ * The latencies go into a LatencyHistogram accumulator named "latency <name>", merged over all subtasks and
+ * printed by printSummary at the end of the job, and into the gauges latencyP50, latencyP99 and latencyMax.
+ * For windowed results, the percentiles of every window firing are also logged once the watermark has passed
+ * the end of the window.
+ */
+public class LatencyRecorder<T> extends ProcessFunction<T, T> {
+    private static final Logger logger = LoggerFactory.getLogger("SocialNetwork");
+    public static final String ACCUMULATOR_PREFIX = "latency ";
+
+    public interface TimeExtractor<T> extends Serializable {
+        long extract(T value);
+    }
+
+    private final String name;
+    private final TimeExtractor<T> sendTime;
+    private final TimeExtractor<T> windowEnd;
+    private transient LatencyHistogram total;
+    private transient TreeMap<Long, LatencyHistogram> firings;
+
+    /**
+     * @param sendTime  the send time of the newest activity a result depends on, 0 if unknown
+     * @param windowEnd the end of the window of a result, or null if the results are not windowed
+     */
+    public LatencyRecorder(String name, TimeExtractor<T> sendTime, TimeExtractor<T> windowEnd) {
+        this.name = name;
+        this.sendTime = sendTime;
+        this.windowEnd = windowEnd;
+    }
+
+    /**
+     * Records the latency of the given stream in front of its sink, if Config.trackLatency is set. For windowed
+     * results the recorder runs with parallelism 1 like the sinks, so it sees every window firing as a whole,
+     * otherwise it is chained to the operator producing the stream.
+     */
+    public static <T> DataStream<T> record(DataStream<T> stream, String name, TimeExtractor<T> sendTime,
+                                           TimeExtractor<T> windowEnd) {
+        if (!Config.trackLatency) {
+            return stream;
+        }
+        return stream
+                .process(new LatencyRecorder<>(name, sendTime, windowEnd), stream.getType())
+                .setParallelism(windowEnd != null ? 1 : stream.getParallelism())
+                .name("latency " + name);
+    }
+
+    /**
+     * Prints the merged latency histograms of all recorders of a finished job.
+     */
+    public static void printSummary(JobExecutionResult result) {
+        for (Map.Entry<String, Object> accumulator : new TreeMap<>(result.getAllAccumulatorResults()).entrySet()) {
+            if (accumulator.getKey().startsWith(ACCUMULATOR_PREFIX)) {
+                logger.info("End-to-end latency of {}: {}",
+                        accumulator.getKey().substring(ACCUMULATOR_PREFIX.length()), accumulator.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void open(Configuration parameters) {
+        total = new LatencyHistogram();
+        firings = new TreeMap<>();
+        getRuntimeContext().addAccumulator(ACCUMULATOR_PREFIX + name, total);
+        MetricGroup metrics = getRuntimeContext().getMetricGroup().addGroup("latency", name);
+        metrics.gauge("latencyP50", (Gauge<Long>) () -> total.getPercentile(0.5));
+        metrics.gauge("latencyP99", (Gauge<Long>) () -> total.getPercentile(0.99));
+        metrics.gauge("latencyMax", (Gauge<Long>) () -> total.getMax());
+    }
+
+    @Override
+    public void processElement(T value, Context ctx, Collector<T> out) {
+        long sent = sendTime.extract(value);
+        if (sent > 0) {
+            long latency = System.currentTimeMillis() - sent;
+            total.record(latency);
+            if (windowEnd != null) {
+                firings.computeIfAbsent(windowEnd.extract(value), end -> new LatencyHistogram()).record(latency);
+            }
+        }
+        if (windowEnd != null) {
+            // a window fires once the watermark reaches its end - 1, its results arrive ahead of that watermark
+            long watermark = ctx.timerService().currentWatermark();
+            reportFirings(watermark == Long.MAX_VALUE ? watermark : watermark + 1);
+        }
+        out.collect(value);
+    }
+
+    @Override
+    public void close() {
+        if (firings != null) {
+            reportFirings(Long.MAX_VALUE);
+            logger.info("End-to-end latency of {} at subtask {}: {}", name,
+                    getRuntimeContext().getIndexOfThisSubtask(), total);
+        }
+    }
+
+    // logs and forgets the firings of the windows ending at or before the given time
+    private void reportFirings(long until) {
+        Iterator<Map.Entry<Long, LatencyHistogram>> it = firings.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, LatencyHistogram> firing = it.next();
+            if (firing.getKey() > until) {
+                return;
+            }
+            logger.info("End-to-end latency of {} for the window ending {}: {}", name,
+                    TimestampCodec.format(firing.getKey()), firing.getValue());
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package socialnetwork.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The progress of a replay of the cleaned stream files, to resume it where the checkpoint was taken, see
+ * ActivityStreamReader.resume: the offset of each file to read on from, the seed of the lateness, and the output
+ * timestamp of the last activity sent with the number of activities sent at that timestamp.
+ *
+ * The delivery is at-least-once: the activities sent after the last checkpoint of an interrupted replay are sent
+ * again on resume, even if Kafka has them already, as idempotence does not span producer sessions.
+ *
+ * Stored as a properties file, which is replaced atomically so that a crash leaves the previous checkpoint.
+ */
+public class ReplayCheckpoint {
+    public final long[] offsets;
+    public final long seed;
+    public final long timestamp;
+    public final long sentAtTimestamp;
+
+    public ReplayCheckpoint(long[] offsets, long seed, long timestamp, long sentAtTimestamp) {
+        this.offsets = offsets;
+        this.seed = seed;
+        this.timestamp = timestamp;
+        this.sentAtTimestamp = sentAtTimestamp;
+    }
+
+    /**
+     * Writes the checkpoint of a replay of the given files with the given lateness, 0 if in order, and of the
+     * activities created in the given range, see ActivityStreamReader.forRange.
+     */
+    public void save(String path, String[] files, int lateness, long from, long to) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("files", String.join(",", files));
+        properties.setProperty("lateness", String.valueOf(lateness));
+        properties.setProperty("range", rangeOf(from, to));
+        properties.setProperty("seed", String.valueOf(seed));
+        properties.setProperty("timestamp", String.valueOf(timestamp));
+        properties.setProperty("sentAtTimestamp", String.valueOf(sentAtTimestamp));
+        for (int i = 0; i < offsets.length; i++) {
+            properties.setProperty("offset." + i, String.valueOf(offsets[i]));
+        }
+        Path target = Paths.get(path);
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Path temp = Paths.get(path + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Producer replay progress, as of " + TimestampCodec.format(timestamp));
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the checkpoint at the given path, or returns null if there is none.
+     *
+     * @throws IllegalStateException if it was taken of a replay of other files, or with another lateness or range
+     */
+    public static ReplayCheckpoint load(String path, String[] files, int lateness, long from, long to)
+            throws IOException {
+        Path source = Paths.get(path);
+        if (!Files.exists(source)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        if (!String.join(",", files).equals(properties.getProperty("files"))
+                || lateness != Integer.parseInt(properties.getProperty("lateness"))
+                || !rangeOf(from, to).equals(properties.getProperty("range"))) {
+            throw new IllegalStateException(String.format("%s is of a replay of %s with lateness %s over %s, delete " +
+                    "it to replay %s with lateness %d over %s from the start", path, properties.getProperty("files"),
+                    properties.getProperty("lateness"), properties.getProperty("range"), Arrays.toString(files),
+                    lateness, rangeOf(from, to)));
+        }
+        long[] offsets = new long[files.length];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = Long.parseLong(properties.getProperty("offset." + i));
+        }
+        return new ReplayCheckpoint(offsets, Long.parseLong(properties.getProperty("seed")),
+                Long.parseLong(properties.getProperty("timestamp")),
+                Long.parseLong(properties.getProperty("sentAtTimestamp")));
+    }
+
+    private static String rangeOf(long from, long to) {
+        return (from == Long.MIN_VALUE ? "start" : TimestampCodec.format(from)) + " to "
+                + (to == Long.MAX_VALUE ? "end" : TimestampCodec.format(to));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d activities sent at %s, offsets %s", sentAtTimestamp, TimestampCodec.format(timestamp),
+                Arrays.toString(offsets));
+    }
+}
@@ -0,0 +1,166 @@
+package socialnetwork.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the replay of a stream against System.nanoTime, either proportionally to event time (speedup mode), at
+ * a fixed number of records per second (token bucket mode), or not at all.
+ *
+ * Every record gets an absolute target time, so waits shorter than a millisecond are not lost to truncation and
+ * being late for one record does not delay the schedule of the following ones. Once per second the achieved rate
+ * is reported against the target rate, with how far the replay is behind its schedule.
+ *
+ * A pacer can be shared by several sender threads, it then paces and reports their records together.
+ */
+public abstract class ReplayPacer {
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private long intervalStart;
+    private long intervalRecords;
+    private long intervalFirstEvent = Long.MIN_VALUE;
+    private long intervalLastEvent;
+    private long maxLag;
+
+    /**
+     * Replays event time the given number of times faster than it passed, the first record goes out at once.
+     */
+    public static ReplayPacer speedup(double factor) {
+        return new Speedup(factor);
+    }
+
+    /**
+     * Replays at most recordsPerSecond records per second, in bursts of at most burst records.
+     */
+    public static ReplayPacer fixedRate(double recordsPerSecond, int burst) {
+        return new TokenBucket(recordsPerSecond, burst);
+    }
+
+    /**
+     * Replays as fast as possible, only reporting the achieved rate.
+     */
+    public static ReplayPacer unpaced() {
+        return new ReplayPacer() {
+            @Override
+            long schedule(long eventTimestamp, long now) {
+                return now;
+            }
+
+            @Override
+            String describeTarget() {
+                return "unpaced";
+            }
+        };
+    }
+
+    /**
+     * Returns the System.nanoTime at which the record with the given event timestamp is due, without waiting.
+     */
+    public synchronized long schedule(long eventTimestamp) {
+        return schedule(eventTimestamp, System.nanoTime());
+    }
+
+    /**
+     * Waits until the target time returned by schedule, and counts the record for the rate report.
+     */
+    public void awaitUntil(long eventTimestamp, long target) throws InterruptedException {
+        long now = System.nanoTime();
+        while (now < target) {
+            LockSupport.parkNanos(target - now);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            now = System.nanoTime();
+        }
+        count(eventTimestamp, target, now);
+    }
+
+    /**
+     * Schedules the record and waits until it is due.
+     */
+    public void await(long eventTimestamp) throws InterruptedException {
+        awaitUntil(eventTimestamp, schedule(eventTimestamp));
+    }
+
+    abstract long schedule(long eventTimestamp, long now);
+
+    abstract String describeTarget();
+
+    private synchronized void count(long eventTimestamp, long target, long now) {
+        if (intervalFirstEvent == Long.MIN_VALUE) {
+            intervalStart = now;
+            intervalFirstEvent = eventTimestamp;
+        }
+        intervalRecords++;
+        intervalLastEvent = eventTimestamp;
+        maxLag = Math.max(maxLag, now - target);
+
+        long elapsed = now - intervalStart;
+        if (elapsed >= REPORT_INTERVAL) {
+            long eventTime = intervalLastEvent - intervalFirstEvent;
+            System.out.println(String.format("Replayed %.0f records/s (target: %s), %.1f s of event time/s, up to %.1f ms behind schedule",
+                    intervalRecords * 1e9 / elapsed, describeTarget(),
+                    eventTime / 1000.0 * 1e9 / elapsed, maxLag / 1e6));
+            intervalStart = now;
+            intervalRecords = 0;
+            intervalFirstEvent = eventTimestamp;
+            maxLag = 0;
+        }
+    }
+
+    private static final class Speedup extends ReplayPacer {
+        private final double nanosPerEventMilli;
+        private long firstEvent = Long.MIN_VALUE;
+        private long start;
+
+        Speedup(double factor) {
+            this.nanosPerEventMilli = 1e6 / factor;
+        }
+
+        @Override
+        long schedule(long eventTimestamp, long now) {
+            if (firstEvent == Long.MIN_VALUE) {
+                firstEvent = eventTimestamp;
+                start = now;
+            }
+            return start + (long) ((eventTimestamp - firstEvent) * nanosPerEventMilli);
+        }
+
+        @Override
+        String describeTarget() {
+            return String.format("%.1f s of event time/s", 1e6 / nanosPerEventMilli);
+        }
+    }
+
+    /**
+     * Token bucket of burst tokens refilled at the target rate, kept as the theoretical arrival time of the next
+     * record: a record is due once that time is at most burst - 1 intervals away.
+     */
+    private static final class TokenBucket extends ReplayPacer {
+        private final double recordsPerSecond;
+        private final long interval;
+        private final long tolerance;
+        private long arrival = Long.MIN_VALUE;
+
+        TokenBucket(double recordsPerSecond, int burst) {
+            this.recordsPerSecond = recordsPerSecond;
+            this.interval = (long) (1e9 / recordsPerSecond);
+            this.tolerance = interval * (Math.max(1, burst) - 1);
+        }
+
+        @Override
+        long schedule(long eventTimestamp, long now) {
+            if (arrival == Long.MIN_VALUE) {
+                arrival = now;
+            }
+            long due = Math.max(now, arrival - tolerance);
+            arrival = Math.max(arrival, due) + interval;
+            return due;
+        }
+
+        @Override
+        String describeTarget() {
+            return String.format("%.0f records/s", recordsPerSecond);
+        }
+    }
+}
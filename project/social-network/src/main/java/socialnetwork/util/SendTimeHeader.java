@@ -0,0 +1,70 @@
+package socialnetwork.util;
+
+import org.apache.flink.api.common.serialization.DeserializationSchema;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.streaming.connectors.kafka.KafkaDeserializationSchema;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The Kafka record header in which the Producer stamps the wall-clock millis at which it sent a record, 8 bytes
+ * big-endian. The records themselves stay unchanged, so text, binary and envelope records all carry it the same
+ * way. All activities of an envelope get the send time of the envelope.
+ */
+public final class SendTimeHeader {
+    public static final String KEY = "sendTime";
+
+    private SendTimeHeader() {}
+
+    public static void stamp(Headers headers, long sendTime) {
+        headers.add(KEY, ByteBuffer.allocate(Long.BYTES).putLong(sendTime).array());
+    }
+
+    /**
+     * The send time of the record, 0 if it has none.
+     */
+    public static long read(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(KEY);
+        return header == null || header.value().length != Long.BYTES ? 0 : ByteBuffer.wrap(header.value()).getLong();
+    }
+
+    /**
+     * Deserializes records with the given schema, and sets the send time of the activities, or of the lists of
+     * activities of envelopes, that it returns.
+     */
+    public static class Deserializer<T> implements KafkaDeserializationSchema<T> {
+        private final DeserializationSchema<T> deserializer;
+
+        public Deserializer(DeserializationSchema<T> deserializer) {
+            this.deserializer = deserializer;
+        }
+
+        @Override
+        public T deserialize(ConsumerRecord<byte[], byte[]> record) throws Exception {
+            T value = deserializer.deserialize(record.value());
+            long sendTime = read(record);
+            if (value instanceof Activity) {
+                ((Activity) value).setSendTime(sendTime);
+            } else if (value instanceof List) {
+                for (Object activity : (List<?>) value) {
+                    ((Activity) activity).setSendTime(sendTime);
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public boolean isEndOfStream(T nextElement) {
+            return deserializer.isEndOfStream(nextElement);
+        }
+
+        @Override
+        public TypeInformation<T> getProducedType() {
+            return deserializer.getProducedType();
+        }
+    }
+}
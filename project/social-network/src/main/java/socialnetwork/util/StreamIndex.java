@@ -0,0 +1,182 @@
+package socialnetwork.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.util.Arrays;
+
+/**
+ * Sparse index of a stream file sorted by creation timestamp: the creation timestamp and byte offset of the first
+ * activity line after every interval bytes. It is stored next to the file, e.g. post_event_stream.csv.index, one
+ * "timestamp|offset" line per entry after a "size|<bytes of the file>" line, so that a stale index is noticed.
+ *
+ * Readers seek to offsetBefore(from) and skip the few lines before from, instead of reading the whole file.
+ */
+public class StreamIndex {
+    public static final String SUFFIX = ".index";
+
+    private final long fileSize;
+    private final long[] timestamps;
+    private final long[] offsets;
+
+    private StreamIndex(long fileSize, long[] timestamps, long[] offsets) {
+        this.fileSize = fileSize;
+        this.timestamps = timestamps;
+        this.offsets = offsets;
+    }
+
+    /**
+     * The index of the given file, read from next to it, or built and written there if it is missing or stale.
+     */
+    public static StreamIndex forFile(String path) throws IOException {
+        Path indexPath = Paths.get(path + SUFFIX);
+        long fileSize = Files.size(Paths.get(path));
+        if (Files.exists(indexPath)) {
+            StreamIndex index = read(indexPath);
+            if (index.fileSize == fileSize) {
+                return index;
+            }
+        }
+        StreamIndex index = build(path, Config.streamIndexInterval);
+        index.write(indexPath);
+        return index;
+    }
+
+    /**
+     * Scans the file, which has a header line and the creation date in the third field of every line.
+     *
+     * @param interval bytes between the entries
+     */
+    public static StreamIndex build(String path, int interval) throws IOException {
+        long[] timestamps = new long[16];
+        long[] offsets = new long[16];
+        int entries = 0;
+        long fileSize = Files.size(Paths.get(path));
+        byte[] line = new byte[1024];
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path), 1 << 16)) {
+            long offset = 0;
+            long nextEntry = 0;
+            boolean header = true;
+            int length = 0;
+            int b;
+            while ((b = in.read()) >= 0 || length > 0) {
+                if (b >= 0 && b != '\n') {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, length * 2);
+                    }
+                    line[length++] = (byte) b;
+                    continue;
+                }
+                long lineOffset = offset;
+                offset += length + (b >= 0 ? 1 : 0);
+                if (!header && lineOffset >= nextEntry) {
+                    long timestamp = creationTimestamp(line, length);
+                    if (timestamp != Long.MIN_VALUE) {
+                        if (entries == timestamps.length) {
+                            timestamps = Arrays.copyOf(timestamps, entries * 2);
+                            offsets = Arrays.copyOf(offsets, entries * 2);
+                        }
+                        timestamps[entries] = timestamp;
+                        offsets[entries] = lineOffset;
+                        entries++;
+                        nextEntry = lineOffset + interval;
+                    }
+                }
+                header = false;
+                length = 0;
+            }
+        }
+        return new StreamIndex(fileSize, Arrays.copyOf(timestamps, entries), Arrays.copyOf(offsets, entries));
+    }
+
+    // of the third field, or Long.MIN_VALUE if the line has none
+    private static long creationTimestamp(byte[] line, int length) {
+        int field = 0;
+        int from = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || line[i] == '|') {
+                if (field == 2) {
+                    try {
+                        return TimestampCodec.parse(line, from, i);
+                    } catch (DateTimeException e) {
+                        return Long.MIN_VALUE;
+                    }
+                }
+                field++;
+                from = i + 1;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static StreamIndex read(Path indexPath) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            long fileSize = Long.parseLong(reader.readLine().split("\\|")[1]);
+            long[] timestamps = new long[16];
+            long[] offsets = new long[16];
+            int entries = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\\|");
+                if (entries == timestamps.length) {
+                    timestamps = Arrays.copyOf(timestamps, entries * 2);
+                    offsets = Arrays.copyOf(offsets, entries * 2);
+                }
+                timestamps[entries] = Long.parseLong(fields[0]);
+                offsets[entries] = Long.parseLong(fields[1]);
+                entries++;
+            }
+            return new StreamIndex(fileSize, Arrays.copyOf(timestamps, entries), Arrays.copyOf(offsets, entries));
+        }
+    }
+
+    // written to a temporary file first and moved into place, so that the sources of a job that build the same
+    // index at the same time never read a partial one
+    private void write(Path indexPath) throws IOException {
+        Path temp = Files.createTempFile(indexPath.toAbsolutePath().getParent(),
+                indexPath.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write("size|" + fileSize);
+                writer.newLine();
+                for (int i = 0; i < timestamps.length; i++) {
+                    writer.write(timestamps[i] + "|" + offsets[i]);
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * The offset of an activity line at or before the first activity created at or after the given timestamp,
+     * 0 for the start of the file with its header.
+     */
+    public long offsetBefore(long timestamp) {
+        // the last entry created before the timestamp, all lines before it are created before it as well
+        int i = Arrays.binarySearch(timestamps, timestamp);
+        if (i < 0) {
+            i = -i - 1;
+        } else {
+            while (i > 0 && timestamps[i - 1] == timestamp) {
+                i--;
+            }
+        }
+        return i == 0 ? 0 : offsets[i - 1];
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+}
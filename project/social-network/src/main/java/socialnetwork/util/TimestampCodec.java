@@ -0,0 +1,209 @@
+package socialnetwork.util;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Parser and formatter for the fixed-width creation dates of the LDBC streams, e.g.
+ * "2012-02-02T06:00:09Z", "2012-02-02T10:32:46ZZ" or "2012-02-05T02:44:01.000ZZ".
+ *
+ * Dates are parsed straight into epoch milliseconds. All timestamps are in GMT, so as with the
+ * previous DateTimeFormatter based parsing, any zone suffix after the seconds or fraction is ignored.
+ * The epoch day of every date prefix is kept in a small direct-mapped cache, because consecutive
+ * activities almost always fall on a day that has already been seen.
+ */
+public final class TimestampCodec {
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * MILLIS_PER_SECOND;
+    private static final int MIN_LENGTH = 19;  // yyyy-MM-ddTHH:mm:ss
+    private static final long INVALID = Long.MIN_VALUE;
+
+    // each entry packs (yyyyMMdd << 32 | epochDay), 0 means empty as there is no year 0 in the data
+    private static final int CACHE_BITS = 10;
+    private static final AtomicLongArray dayCache = new AtomicLongArray(1 << CACHE_BITS);
+
+    // "yyyy-MM-ddT" of the last formatted day, immutable so it can be shared between threads without locking
+    private static FormattedDay lastFormattedDay;
+
+    private TimestampCodec() {}
+
+    public static long parse(CharSequence s) {
+        int len = s.length();
+        if (len < MIN_LENGTH
+                || s.charAt(4) != '-' || s.charAt(7) != '-' || (s.charAt(10) != 'T' && s.charAt(10) != ' ')
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            throw error(s);
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+
+        int millis = 0;
+        if (len > MIN_LENGTH && s.charAt(MIN_LENGTH) == '.') {
+            int scale = 100;
+            for (int i = MIN_LENGTH + 1; i < len && i <= MIN_LENGTH + 3; i++) {
+                int digit = s.charAt(i) - '0';
+                if (digit < 0 || digit > 9) break;
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+
+        if (year < 0 || month < 1 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 59) {
+            throw error(s);
+        }
+        long epochMillis = toEpochMillis(year, month, day, hour, minute, second, millis);
+        if (epochMillis == INVALID) {
+            throw error(s);
+        }
+        return epochMillis;
+    }
+
+    public static long parse(byte[] b, int from, int to) {
+        if (to - from < MIN_LENGTH
+                || b[from + 4] != '-' || b[from + 7] != '-' || (b[from + 10] != 'T' && b[from + 10] != ' ')
+                || b[from + 13] != ':' || b[from + 16] != ':') {
+            throw error(new String(b, from, to - from));
+        }
+        int year = digits(b, from, 4);
+        int month = digits(b, from + 5, 2);
+        int day = digits(b, from + 8, 2);
+        int hour = digits(b, from + 11, 2);
+        int minute = digits(b, from + 14, 2);
+        int second = digits(b, from + 17, 2);
+
+        int millis = 0;
+        int fraction = from + MIN_LENGTH;
+        if (fraction < to && b[fraction] == '.') {
+            int scale = 100;
+            for (int i = fraction + 1; i < to && i <= fraction + 3; i++) {
+                int digit = b[i] - '0';
+                if (digit < 0 || digit > 9) break;
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+
+        if (year < 0 || month < 1 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 59) {
+            throw error(new String(b, from, to - from));
+        }
+        long epochMillis = toEpochMillis(year, month, day, hour, minute, second, millis);
+        if (epochMillis == INVALID) {
+            throw error(new String(b, from, to - from));
+        }
+        return epochMillis;
+    }
+
+    /**
+     * Formats epoch milliseconds as yyyy-MM-dd'T'HH:mm:ss in GMT, the same output as a SimpleDateFormat
+     * with that pattern and the GMT time zone.
+     */
+    public static String format(long epochMillis) {
+        StringBuilder sb = new StringBuilder(MIN_LENGTH + 5);
+        formatTo(epochMillis, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Formats epoch milliseconds as yyyy-MM-dd'T'HH:mm:ss.SSS'Z' in GMT, like the dates of the likes stream.
+     */
+    public static String formatMillis(long epochMillis) {
+        StringBuilder sb = new StringBuilder(MIN_LENGTH + 5);
+        formatTo(epochMillis, sb);
+        appendDigits(sb.append('.'), (int) Math.floorMod(epochMillis, MILLIS_PER_SECOND), 3).append('Z');
+        return sb.toString();
+    }
+
+    public static void formatTo(long epochMillis, StringBuilder sb) {
+        long epochDay = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        int secondOfDay = (int) (Math.floorMod(epochMillis, MILLIS_PER_DAY) / MILLIS_PER_SECOND);
+
+        FormattedDay day = lastFormattedDay;
+        if (day == null || day.epochDay != epochDay) {
+            day = new FormattedDay(epochDay);
+            lastFormattedDay = day;
+        }
+        sb.append(day.prefix);
+        appendDigits(sb, secondOfDay / 3600, 2).append(':');
+        appendDigits(sb, secondOfDay / 60 % 60, 2).append(':');
+        appendDigits(sb, secondOfDay % 60, 2);
+    }
+
+    // returns INVALID if the date does not exist, e.g. February 30
+    private static long toEpochMillis(int year, int month, int day, int hour, int minute, int second, int millis) {
+        long dateKey = year * 10000L + month * 100L + day;
+        int slot = (int) ((dateKey * 0x9E3779B97F4A7C15L) >>> (64 - CACHE_BITS));
+        long entry = dayCache.get(slot);
+
+        long epochDay;
+        if (entry >>> 32 == dateKey) {
+            epochDay = (int) entry;
+        } else {
+            try {
+                epochDay = LocalDate.of(year, month, day).toEpochDay();
+            } catch (DateTimeException e) {
+                return INVALID;
+            }
+            dayCache.set(slot, dateKey << 32 | (epochDay & 0xFFFFFFFFL));
+        }
+        return epochDay * MILLIS_PER_DAY + (hour * 3600 + minute * 60 + second) * MILLIS_PER_SECOND + millis;
+    }
+
+    // returns -1 if any of the characters is not a digit
+    private static int digits(CharSequence s, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int digits(byte[] b, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static StringBuilder appendDigits(StringBuilder sb, int value, int width) {
+        int div = 1;
+        for (int i = 1; i < width; i++) {
+            div *= 10;
+        }
+        for (; div > 0; div /= 10) {
+            sb.append((char) ('0' + value / div % 10));
+        }
+        return sb;
+    }
+
+    private static final class FormattedDay {
+        final long epochDay;
+        final char[] prefix;
+
+        FormattedDay(long epochDay) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            StringBuilder sb = new StringBuilder(11);
+            appendDigits(sb, date.getYear(), 4).append('-');
+            appendDigits(sb, date.getMonthValue(), 2).append('-');
+            appendDigits(sb, date.getDayOfMonth(), 2).append('T');
+            this.epochDay = epochDay;
+            this.prefix = sb.toString().toCharArray();
+        }
+    }
+
+    private static DateTimeParseException error(CharSequence s) {
+        return new DateTimeParseException("Text '" + s + "' could not be parsed as an LDBC creation date", s, 0);
+    }
+}
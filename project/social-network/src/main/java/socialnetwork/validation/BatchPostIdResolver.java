@@ -5,6 +5,7 @@ import socialnetwork.util.Activity;
 import socialnetwork.util.Activity.ActivityType;
 import socialnetwork.util.Activity.Reply;
 import socialnetwork.util.Activity.Tombstone;
+import socialnetwork.util.ActivityStreamReader;
 
 import java.util.*;
 
@@ -21,8 +22,7 @@ public class BatchPostIdResolver {
         if(args.length <= 0) { return; }
 
         System.out.println("Reading streams");
-        TreeMap<Long, List<Activity>> data =
-                Producer.readCleanedStreams(true, 0);
+        ActivityStreamReader data = Producer.readCleanedStreams(true, 0);
 
         BatchPostIdResolver resolver = new BatchPostIdResolver();
         resolver.resolveMappings(data);
@@ -51,8 +51,9 @@ public class BatchPostIdResolver {
         return children;
     }
 
-    private void resolveMappings(final SortedMap<Long,  List<Activity>> data) {
-        for(List<Activity> list : data.values()) {
+    private void resolveMappings(final ActivityStreamReader data) {
+        while (data.hasNext()) {
+            List<Activity> list = data.next().getValue();
             for(Activity activity : list) {
                 if(activity instanceof Tombstone) {
                     continue;
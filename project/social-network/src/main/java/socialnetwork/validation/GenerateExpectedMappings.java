@@ -5,13 +5,13 @@ import socialnetwork.util.Activity;
 import socialnetwork.util.Activity.ActivityType;
 import socialnetwork.util.Activity.Comment;
 import socialnetwork.util.Activity.Reply;
+import socialnetwork.util.ActivityStreamReader;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 import static socialnetwork.util.Helpers.getFileWriter;
 
@@ -24,11 +24,11 @@ public class GenerateExpectedMappings {
 
     public static Map<String, String> resolvePostIdMappings() throws Exception {
         System.out.println("Reading streams");
-        TreeMap<Long, List<Activity>> data =
-                Producer.readCleanedStreams(true, 0);
+        ActivityStreamReader data = Producer.readCleanedStreams(true, 0);
 
         Map<String, String> mappings = new HashMap<>();
-        for (Map.Entry<Long, List<Activity>> entry : data.entrySet()) {
+        while (data.hasNext()) {
+            Map.Entry<Long, List<Activity>> entry = data.next();
             // Add all relationships to the map
             for (Activity activity : entry.getValue()) {
                 if (activity.getType() == ActivityType.Comment) {
@@ -3,6 +3,8 @@ package socialnetwork.validation;
 import org.apache.flink.api.common.time.Time;
 import socialnetwork.Producer;
 import socialnetwork.util.Activity;
+import socialnetwork.util.ActivityStreamReader;
+import socialnetwork.util.Config;
 
 import java.util.*;
 
@@ -19,6 +21,11 @@ public abstract class SlidingWindowEvaluator {
     long currentStart = 0L;
     long currentEnd = 0L; // non-inclusive
 
+    // comments and replies come after their parents, so replies can be resolved while streaming
+    private final Map<Integer, Integer> childToParentMappings = new HashMap<>();
+    // whether replies with unknown parents are left out, see run(long, long)
+    private boolean dropUnresolved;
+
     private void setupWindow(long value){
         currentEnd = value + slide - (value % slide);
         currentStart = currentEnd - size;
@@ -32,69 +39,78 @@ public abstract class SlidingWindowEvaluator {
         window.removeIf(activity -> activity.getCreationTimestamp() < currentStart);
     }
 
+    /**
+     * Evaluates the activities in the range of Config.getReplayFrom and Config.getReplayTo, like the job sees them.
+     */
     public void run() throws Exception {
-        LinkedList<Activity> window = new LinkedList<>();
+        run(Config.getReplayFrom(), Config.getReplayTo());
+    }
 
-        // get stream of activities and resolve the mappings
-        TreeMap<Long, List<Activity>> data = Producer.readCleanedStreams(true, 0);
-        resolveMappings(data);
-
-        while (!data.isEmpty()) {
-            // forward to the earliest non-empty window
-            setupWindow(data.firstKey());
-
-            // slide until no activities remain
-            do {
-                // collect everything within the window
-                while (!data.isEmpty() && data.firstKey() < currentEnd) {
-                    List<Activity> activities = data.pollFirstEntry().getValue();
-                    window.addAll(activities);
-                }
-                processWindow(window);
-                slideWindow(window);
-            } while (!window.isEmpty());
-
-            System.out.println(String.format("Window [%d, %d) has no overlapped input, fast forward", currentStart, currentEnd));
+    /**
+     * Evaluates the activities created at or after from and before to, which are read from the offsets of the
+     * StreamIndex of each file instead of from the start. As in the job, replies to comments created before from
+     * cannot be resolved, so they are left out if the range does not start at the start of the streams.
+     */
+    public void run(long from, long to) throws Exception {
+        LinkedList<Activity> window = new LinkedList<>();
+        dropUnresolved = from != Long.MIN_VALUE;
+
+        // get stream of activities, the mappings are resolved as they come in
+        try (ActivityStreamReader data = Producer.readCleanedStreams(true, 0, from, to)) {
+            while (data.hasNext()) {
+                // forward to the earliest non-empty window
+                setupWindow(data.peekTimestamp());
+
+                // slide until no activities remain
+                do {
+                    // collect everything within the window
+                    while (data.hasNext() && data.peekTimestamp() < currentEnd) {
+                        List<Activity> activities = data.next().getValue();
+                        activities.removeIf(activity -> !resolveMapping(activity));
+                        window.addAll(activities);
+                    }
+                    processWindow(window);
+                    slideWindow(window);
+                } while (!window.isEmpty());
+
+                System.out.println(String.format("Window [%d, %d) has no overlapped input, fast forward", currentStart, currentEnd));
+            }
         }
     }
 
-    private void resolveMappings(final SortedMap<Long,  List<Activity>> data) {
-        final Map<Integer, Integer> childToParentMappings;
-        childToParentMappings = new HashMap<>();
-
-        for(List<Activity> list : data.values()) {
-            for(Activity activity : list) {
-                if(activity instanceof Activity.Tombstone) {
-                    continue;
-                }
-
-                // Skip posts, because post ids overlap with comment ids
-                if(activity.getType() == Activity.ActivityType.Post) {
-                    continue;
-                }
-
-                // Skip likes, because post ids overlap with comment ids
-                if(activity.getType() == Activity.ActivityType.Like) {
-                    continue;
-                }
-
-                Integer parent = activity.getPostId();
-
-                // update postid field for replies
-                if(activity.getType() == Activity.ActivityType.Reply) {
-                    Activity.Reply r = (Activity.Reply) activity;
-                    parent = childToParentMappings.get(r.getParentId());
-                    r.setPostId(parent);
-                }
-
-                // save the mapping for this comment or reply
-                Integer id = activity.getId();
-                if(!childToParentMappings.containsKey(id)) {
-                    childToParentMappings.put(id, parent);
-                }
+    // returns false for replies whose parent was not read, i.e. created before the range, when replaying a range
+    private boolean resolveMapping(Activity activity) {
+        if(activity instanceof Activity.Tombstone) {
+            return true;
+        }
+
+        // Skip posts, because post ids overlap with comment ids
+        if(activity.getType() == Activity.ActivityType.Post) {
+            return true;
+        }
+
+        // Skip likes, because post ids overlap with comment ids
+        if(activity.getType() == Activity.ActivityType.Like) {
+            return true;
+        }
+
+        Integer parent = activity.getPostId();
+
+        // update postid field for replies
+        if(activity.getType() == Activity.ActivityType.Reply) {
+            Activity.Reply r = (Activity.Reply) activity;
+            parent = childToParentMappings.get(r.getParentId());
+            if(parent == null && dropUnresolved) {
+                return false;
             }
+            r.setPostId(parent);
         }
 
-        System.out.println("Resolved all mappings.");
+        // save the mapping for this comment or reply
+        Integer id = activity.getId();
+        if(!childToParentMappings.containsKey(id)) {
+            childToParentMappings.put(id, parent);
+        }
+        return true;
     }
 }
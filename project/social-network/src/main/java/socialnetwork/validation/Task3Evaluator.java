@@ -4,6 +4,8 @@ import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.api.java.tuple.Tuple3;
 import socialnetwork.Producer;
 import socialnetwork.util.Activity;
+import socialnetwork.util.ActivityStreamReader;
+import socialnetwork.util.Config;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -36,6 +38,8 @@ import static socialnetwork.task.anomalydetection.AnomalousUserDetector.*;
 
 public class Task3Evaluator {
     private BufferedWriter writer;
+    // comments and replies come after their parents, so replies can be resolved while streaming
+    private final Map<Integer, Integer> childToParentMappings = new HashMap<>();
 
     public Task3Evaluator(String outputPath) {
         writer = getFileWriter(outputPath);
@@ -45,20 +49,22 @@ public class Task3Evaluator {
     public void run() throws Exception {
         StringBuilder output = new StringBuilder();
 
-        // get stream of activities and resolve the mappings
-        TreeMap<Long, List<Activity>> data = Producer.readCleanedStreams(true, 0);
-        resolveMappings(data);
+        // get stream of activities in the range of the job, the mappings are resolved as they come in
+        ActivityStreamReader data = Producer.readCleanedStreams(true, 0, Config.getReplayFrom(), Config.getReplayTo());
 
         Signatures globalSignatures = new Signatures();
         Map<Integer, Features> featuresPerUser = new HashMap<>();
         Map<Integer, Tuple3<Long, Long, Long>> lastThreeActivitiesPerUser = new HashMap<>();
 
-        while (!data.isEmpty()) {
-            Map.Entry<Long, List<Activity>> entry = data.pollFirstEntry();
+        while (data.hasNext()) {
+            Map.Entry<Long, List<Activity>> entry = data.next();
             Long timestamp = entry.getKey();
             List<Activity> activities = entry.getValue();
 
             for (Activity activity : activities) {
+                if (!resolveMapping(activity)) {
+                    continue;
+                }
                 Integer userId = activity.getPersonId();
 
                 // create records for new user
@@ -97,44 +103,41 @@ public class Task3Evaluator {
         System.out.println("Done.");
     }
 
-    private void resolveMappings(final SortedMap<Long,  List<Activity>> data) {
-        final Map<Integer, Integer> childToParentMappings;
-        childToParentMappings = new HashMap<>();
-
-        for(List<Activity> list : data.values()) {
-            for(Activity activity : list) {
-                if(activity instanceof Activity.Tombstone) {
-                    continue;
-                }
-
-                // Skip posts, because post ids overlap with comment ids
-                if(activity.getType() == Activity.ActivityType.Post) {
-                    continue;
-                }
+    // returns false for replies whose parent was not read, i.e. created before the range, when replaying a range
+    // that does not start at the start of the streams, the job drops them
+    private boolean resolveMapping(Activity activity) {
+        if(activity instanceof Activity.Tombstone) {
+            return true;
+        }
 
-                // Skip likes, because post ids overlap with comment ids
-                if(activity.getType() == Activity.ActivityType.Like) {
-                    continue;
-                }
+        // Skip posts, because post ids overlap with comment ids
+        if(activity.getType() == Activity.ActivityType.Post) {
+            return true;
+        }
 
-                Integer parent = activity.getPostId();
+        // Skip likes, because post ids overlap with comment ids
+        if(activity.getType() == Activity.ActivityType.Like) {
+            return true;
+        }
 
-                // update postid field for replies
-                if(activity.getType() == Activity.ActivityType.Reply) {
-                    Activity.Reply r = (Activity.Reply) activity;
-                    parent = childToParentMappings.get(r.getParentId());
-                    r.setPostId(parent);
-                }
+        Integer parent = activity.getPostId();
 
-                // save the mapping for this comment or reply
-                Integer id = activity.getId();
-                if(!childToParentMappings.containsKey(id)) {
-                    childToParentMappings.put(id, parent);
-                }
+        // update postid field for replies
+        if(activity.getType() == Activity.ActivityType.Reply) {
+            Activity.Reply r = (Activity.Reply) activity;
+            parent = childToParentMappings.get(r.getParentId());
+            if(parent == null && Config.getReplayFrom() != Long.MIN_VALUE) {
+                return false;
             }
+            r.setPostId(parent);
         }
 
-        System.out.println("Resolved all mappings.");
+        // save the mapping for this comment or reply
+        Integer id = activity.getId();
+        if(!childToParentMappings.containsKey(id)) {
+            childToParentMappings.put(id, parent);
+        }
+        return true;
     }
 
 